@@ -0,0 +1,121 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * Массив из тела запроса читается потоково, по одному элементу. Элементы, прошедшие проверку аннотаций,
+ * копятся в пачку размером chunkSize, каждая пачка сохраняется отдельной транзакцией.
+ * Результат i соответствует i-му элементу массива. На первом элементе, который не удалось прочитать,
+ * загрузка останавливается, и его ошибка становится последним результатом.
+ */
+@Component
+@Slf4j
+public class BulkImporter {
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int chunkSize;
+
+    public BulkImporter(ObjectMapper objectMapper, Validator validator,
+                        @Value("${filmorate.bulk.chunk-size:5000}") int chunkSize) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+    }
+
+    public <T> List<BulkItemResult> importAll(InputStream body, Class<T> type,
+                                              Function<List<T>, List<BulkItemResult>> writer) throws IOException {
+        List<BulkItemResult> results = new ArrayList<>();
+        List<T> chunk = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ValidationException("Ожидается массив JSON.");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                T item;
+                try {
+                    item = objectMapper.readValue(parser, type);
+                } catch (JsonProcessingException e) {
+                    return stop(results, "Некорректный JSON: " + e.getOriginalMessage(), chunk, positions, writer);
+                }
+                Set<ConstraintViolation<T>> violations = validator.validate(item);
+                if (!violations.isEmpty()) {
+                    results.add(BulkItemResult.builder().error(describe(violations)).build());
+                    continue;
+                }
+                positions.add(results.size());
+                results.add(null);
+                chunk.add(item);
+                if (chunk.size() == chunkSize) {
+                    flush(chunk, positions, results, writer);
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                return stop(results, "Элементы массива должны быть объектами JSON.", chunk, positions, writer);
+            }
+        } catch (JsonProcessingException e) {
+            return stop(results, "Некорректный JSON: " + e.getOriginalMessage(), chunk, positions, writer);
+        }
+        flush(chunk, positions, results, writer);
+        log.debug("Загружено элементов: {}", results.size());
+        return results;
+    }
+
+    /*
+     * Пачки до ошибки уже сохранены, поэтому вместо отказа всего запроса возвращаются их результаты,
+     * а последним элементом - ошибка в элементе, на котором чтение остановилось.
+     */
+    private <T> List<BulkItemResult> stop(List<BulkItemResult> results, String error, List<T> chunk,
+                                          List<Integer> positions, Function<List<T>, List<BulkItemResult>> writer) {
+        flush(chunk, positions, results, writer);
+        log.debug("Загрузка остановлена на элементе {}: {}", results.size(), error);
+        results.add(BulkItemResult.builder().error(error).build());
+        return results;
+    }
+
+    private <T> void flush(List<T> chunk, List<Integer> positions, List<BulkItemResult> results,
+                           Function<List<T>, List<BulkItemResult>> writer) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<BulkItemResult> written;
+        try {
+            written = writer.apply(chunk);
+        } catch (DataAccessException e) {
+            log.warn("Пачка из {} элементов не сохранена", chunk.size(), e);
+            BulkItemResult failed = BulkItemResult.builder()
+                    .error("Пачка не сохранена: " + e.getMostSpecificCause().getMessage())
+                    .build();
+            written = Collections.nCopies(chunk.size(), failed);
+        }
+        for (int i = 0; i < written.size(); i++) {
+            results.set(positions.get(i), written.get(i));
+        }
+        chunk.clear();
+        positions.clear();
+    }
+
+    private <T> String describe(Set<ConstraintViolation<T>> violations) {
+        return violations.stream()
+                .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+}
@@ -1,26 +1,53 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/films")
 @Slf4j
 public class FilmController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
+    private final BulkImporter bulkImporter;
+    private final FieldSet defaultFields;
 
+    /*
+     * При filmorate.films.embed-likes=false фильмы без ?fields= отдаются без списка лайков,
+     * только с likesCount; сами лайки читаются постранично через /films/{id}/likes.
+     */
     @Autowired
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, ObjectMapper objectMapper, BulkImporter bulkImporter,
+                          @Value("${filmorate.films.embed-likes:true}") boolean embedLikes) {
         this.filmService = filmService;
+        this.objectMapper = objectMapper;
+        this.bulkImporter = bulkImporter;
+        this.defaultFields = embedLikes ? FieldSet.ALL : FieldSet.of(Film.FIELDS.stream()
+                .filter(field -> !Film.LIKES.equals(field))
+                .collect(Collectors.toSet()));
     }
 
     @PostMapping
@@ -29,6 +56,18 @@ public class FilmController {
         return filmService.addFilm(film);
     }
 
+    @PostMapping("/bulk")
+    public List<BulkItemResult> addFilms(InputStream body) throws IOException {
+        log.debug("Получен запрос на пакетное добавление фильмов.");
+        return bulkImporter.importAll(body, Film.class, filmService::addFilms);
+    }
+
+    @PutMapping("/likes/bulk")
+    public List<BulkItemResult> addLikes(InputStream body) throws IOException {
+        log.debug("Получен запрос на пакетное добавление лайков.");
+        return bulkImporter.importAll(body, FilmLike.class, filmService::addLikes);
+    }
+
     @PutMapping
     public Film updateFilm(@Valid @RequestBody Film film) throws DataExistException, ValidationException {
         log.debug("Получен запрос на изменение фильма {}.", film.getName());
@@ -36,15 +75,42 @@ public class FilmController {
     }
 
     @GetMapping
-    public List<Film> getAllFilms() {
-        log.debug("Получен запрос на получение всех фильмов.");
-        return filmService.getAllFilms();
+    public ResponseEntity<List<?>> getAllFilms(@RequestParam(required = false) Long after,
+                                               @RequestParam(required = false) Integer limit,
+                                               @RequestParam(required = false) List<Long> ids,
+                                               @RequestParam(required = false) String fields) {
+        FieldSet fieldSet = fieldSet(fields);
+        if (ids != null) {
+            log.debug("Получен запрос на получение фильмов по {} id.", ids.size());
+            return ResponseEntity.ok(view(filmService.getFilmsByIds(ids, fieldSet), fieldSet));
+        }
+        if (after == null && limit == null) {
+            log.debug("Получен запрос на получение всех фильмов.");
+            return ResponseEntity.ok(view(filmService.getAllFilms(fieldSet), fieldSet));
+        }
+        log.debug("Получен запрос на получение фильмов после ID {}, не более {}.", after, limit);
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        List<Film> films = filmService.getFilms(after == null ? 0 : after, pageSize, fieldSet);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (films.size() == Math.min(pageSize, FilmService.MAX_PAGE_SIZE)) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(films.get(films.size() - 1).getId()));
+        }
+        return response.body(view(films, fieldSet));
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFilms() {
+        log.debug("Получен запрос на выгрузку всех фильмов.");
+        return NdjsonResponses.stream(objectMapper, filmService::forEachFilm);
     }
 
     @GetMapping("/{id}")
-    public Film getFilmById(@PathVariable long id) throws DataExistException {
+    public Object getFilmById(@PathVariable long id, @RequestParam(required = false) String fields)
+            throws DataExistException {
         log.debug("Получен запрос на получение фильма с ID {}.", id);
-        return filmService.getFilmById(id);
+        FieldSet fieldSet = fieldSet(fields);
+        Film film = filmService.getFilmById(id, fieldSet);
+        return fieldSet.isAll() ? film : film.toView(fieldSet);
     }
 
     @DeleteMapping("/{id}")
@@ -65,10 +131,47 @@ public class FilmController {
         filmService.removeLike(id, userId);
     }
 
+    @GetMapping("/{id}/likes")
+    public ResponseEntity<List<Long>> getLikes(@PathVariable long id, @RequestParam(required = false) Long after,
+                                               @RequestParam(required = false) Integer limit)
+            throws DataExistException {
+        log.debug("Получен запрос на получение лайков фильма с ID {} после ID {}, не более {}.", id, after, limit);
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        List<Long> likes = filmService.getLikes(id, after == null ? 0 : after, pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (likes.size() == Math.min(pageSize, FilmService.MAX_PAGE_SIZE)) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(likes.get(likes.size() - 1)));
+        }
+        return response.body(likes);
+    }
+
+    @GetMapping("/{id}/likes/count")
+    public int getLikesCount(@PathVariable long id) throws DataExistException {
+        log.debug("Получен запрос на получение количества лайков фильма с ID {}.", id);
+        return filmService.getLikesCount(id);
+    }
+
     @GetMapping("/popular")
-    public List<Film> getTopFilms(@RequestParam(defaultValue = "10") int count) {
+    public List<?> getTopFilms(@RequestParam(defaultValue = "10") int count,
+                               @RequestParam(required = false) Integer genreId,
+                               @RequestParam(required = false) Integer mpaId,
+                               @RequestParam(required = false) String fields) {
         log.debug("Получен запрос на получение популярных фильмов");
-        return filmService.getTopFilms(count);
+        FieldSet fieldSet = fieldSet(fields);
+        return view(filmService.getTopFilms(count, genreId, mpaId, fieldSet), fieldSet);
     }
 
+    private FieldSet fieldSet(String fields) {
+        return fields == null || fields.isBlank() ? defaultFields : FieldSet.parse(fields, Film.FIELDS);
+    }
+
+    // полный набор полей отдается самими фильмами, иначе только запрошенные поля
+    private static List<?> view(List<Film> films, FieldSet fields) {
+        if (fields.isAll()) {
+            return films;
+        }
+        return films.stream()
+                .map(film -> film.toView(fields))
+                .collect(Collectors.toList());
+    }
 }
@@ -1,25 +1,40 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/users")
 @Slf4j
 public class UserController {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final BulkImporter bulkImporter;
 
     @Autowired
-    public UserController(UserService userService) {
+    public UserController(UserService userService, ObjectMapper objectMapper, BulkImporter bulkImporter) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.bulkImporter = bulkImporter;
     }
 
     @PostMapping
@@ -28,6 +43,12 @@ public class UserController {
         return userService.addUser(user);
     }
 
+    @PostMapping("/bulk")
+    public List<BulkItemResult> addUsers(InputStream body) throws IOException {
+        log.debug("Получен запрос на пакетное добавление пользователей.");
+        return bulkImporter.importAll(body, User.class, userService::addUsers);
+    }
+
     @PutMapping
     public User updateUser(@Valid @RequestBody User user) throws DataExistException, ValidationException {
         log.debug("Получен запрос на обновление пользователя с ID {}.", user.getId());
@@ -35,15 +56,42 @@ public class UserController {
     }
 
     @GetMapping
-    public List<User> getAllUsers() {
-        log.debug("Получен запрос на получение списка всех пользователей.");
-        return userService.getAllUsers();
+    public ResponseEntity<List<?>> getAllUsers(@RequestParam(required = false) Long after,
+                                               @RequestParam(required = false) Integer limit,
+                                               @RequestParam(required = false) List<Long> ids,
+                                               @RequestParam(required = false) String fields) {
+        FieldSet fieldSet = FieldSet.parse(fields, User.FIELDS);
+        if (ids != null) {
+            log.debug("Получен запрос на получение пользователей по {} id.", ids.size());
+            return ResponseEntity.ok(view(userService.getUsersByIds(ids), fieldSet));
+        }
+        if (after == null && limit == null) {
+            log.debug("Получен запрос на получение списка всех пользователей.");
+            return ResponseEntity.ok(view(userService.getAllUsers(), fieldSet));
+        }
+        log.debug("Получен запрос на получение пользователей после ID {}, не более {}.", after, limit);
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        List<User> users = userService.getUsers(after == null ? 0 : after, pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (users.size() == Math.min(pageSize, UserService.MAX_PAGE_SIZE)) {
+            response.header(FilmController.NEXT_CURSOR_HEADER, String.valueOf(users.get(users.size() - 1).getId()));
+        }
+        return response.body(view(users, fieldSet));
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsers() {
+        log.debug("Получен запрос на выгрузку всех пользователей.");
+        return NdjsonResponses.stream(objectMapper, userService::forEachUser);
     }
 
     @GetMapping("/{id}")
-    public User getUserById(@PathVariable(required = false) long id) throws DataExistException {
+    public Object getUserById(@PathVariable(required = false) long id, @RequestParam(required = false) String fields)
+            throws DataExistException {
         log.debug("Получен запрос на получение пользователя с ID {}.", id);
-        return userService.getUserById(id);
+        FieldSet fieldSet = FieldSet.parse(fields, User.FIELDS);
+        User user = userService.getUserById(id);
+        return fieldSet.isAll() ? user : user.toView(fieldSet);
     }
 
     @DeleteMapping("/{id}")
@@ -65,15 +113,25 @@ public class UserController {
     }
 
     @GetMapping("/{id}/friends")
-    public List<User> getAllFriends(@PathVariable long id) throws DataExistException {
+    public List<?> getAllFriends(@PathVariable long id, @RequestParam(required = false) String fields)
+            throws DataExistException {
         log.debug("Получен запрос на получение всех друзей пользователя с ID {}.", id);
-        return userService.getAllFriends(id);
+        return view(userService.getAllFriends(id), FieldSet.parse(fields, User.FIELDS));
     }
 
     @GetMapping("/{id}/friends/common/{otherId}")
-    public List<User> getCommonFriends(@PathVariable long id, @PathVariable long otherId) throws DataExistException {
+    public List<?> getCommonFriends(@PathVariable long id, @PathVariable long otherId,
+                                    @RequestParam(required = false) String fields) throws DataExistException {
         log.debug("Получен запрос на получение общих друзей пользователей с ID {} и с ID {}.", id, otherId);
-        return userService.getCommonFriends(id, otherId);
+        return view(userService.getCommonFriends(id, otherId), FieldSet.parse(fields, User.FIELDS));
     }
 
+    private static List<?> view(List<User> users, FieldSet fields) {
+        if (fields.isAll()) {
+            return users;
+        }
+        return users.stream()
+                .map(user -> user.toView(fields))
+                .collect(Collectors.toList());
+    }
 }
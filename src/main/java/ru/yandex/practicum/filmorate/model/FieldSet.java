@@ -0,0 +1,55 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.EqualsAndHashCode;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*
+ * Набор полей из параметра ?fields=. Поле id отдается всегда, остальные - только запрошенные.
+ * Если параметр не задан, запрошены все поля.
+ */
+@EqualsAndHashCode
+public class FieldSet {
+    public static final String ID = "id";
+    public static final FieldSet ALL = new FieldSet(null);
+
+    private final Set<String> fields;
+
+    private FieldSet(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    public static FieldSet parse(String fields, Set<String> allowed) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+        Set<String> requested = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!allowed.contains(name)) {
+                throw new ValidationException("Неизвестное поле: " + name);
+            }
+            requested.add(name);
+        }
+        return new FieldSet(Collections.unmodifiableSet(requested));
+    }
+
+    public static FieldSet of(Collection<String> fields) {
+        return new FieldSet(Set.copyOf(fields));
+    }
+
+    public boolean isAll() {
+        return fields == null;
+    }
+
+    public boolean has(String field) {
+        return fields == null || ID.equals(field) || fields.contains(field);
+    }
+}
@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Builder;
 import lombok.Data;
 
@@ -8,9 +9,20 @@ import java.time.LocalDate;
 import java.util.*;
 
 
-@Builder
+@Builder(toBuilder = true)
 @Data
 public class Film {
+    public static final String NAME = "name";
+    public static final String DESCRIPTION = "description";
+    public static final String RELEASE_DATE = "releaseDate";
+    public static final String DURATION = "duration";
+    public static final String MPA = "mpa";
+    public static final String GENRES = "genres";
+    public static final String LIKES = "likes";
+    public static final String LIKES_COUNT = "likesCount";
+    public static final Set<String> FIELDS = Set.of(FieldSet.ID, NAME, DESCRIPTION, RELEASE_DATE, DURATION, MPA,
+            GENRES, LIKES, LIKES_COUNT);
+
     private long id;
     private String name;
     @NotNull
@@ -23,7 +35,10 @@ public class Film {
     private Mpa mpa;
     private List<Genre> genres;
     @Builder.Default
-    private Set<Long> likes = new TreeSet<>();
+    private LikeSet likes = new LikeSet();
+    // число лайков, прочитанное без самих лайков; если не задано, считается по likes
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Integer likesCount;
 
     public void addLike(long id) {
         likes.add(id);
@@ -34,6 +49,9 @@ public class Film {
     }
 
     public int getLikesCount() {
+        if (likesCount != null) {
+            return likesCount;
+        }
         if (likes == null) {
             return 0;
         } else {
@@ -51,4 +69,26 @@ public class Film {
         values.put("genres", genres);
         return  values;
     }
+
+    public Map<String, Object> toView(FieldSet fields) {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put(FieldSet.ID, id);
+        putIf(view, fields, NAME, name);
+        putIf(view, fields, DESCRIPTION, description);
+        putIf(view, fields, RELEASE_DATE, releaseDate);
+        putIf(view, fields, DURATION, duration);
+        putIf(view, fields, MPA, mpa);
+        putIf(view, fields, GENRES, genres);
+        putIf(view, fields, LIKES, likes);
+        if (fields.has(LIKES_COUNT)) {
+            view.put(LIKES_COUNT, getLikesCount());
+        }
+        return view;
+    }
+
+    private static void putIf(Map<String, Object> view, FieldSet fields, String field, Object value) {
+        if (fields.has(field)) {
+            view.put(field, value);
+        }
+    }
 }
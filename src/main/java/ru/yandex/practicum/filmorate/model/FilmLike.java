@@ -0,0 +1,15 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import javax.validation.constraints.NotNull;
+
+@Value
+@Builder
+public class FilmLike {
+    @NotNull
+    private Long filmId;
+    @NotNull
+    private Long userId;
+}
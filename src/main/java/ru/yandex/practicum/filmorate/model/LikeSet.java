@@ -0,0 +1,190 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.roaringbitmap.longlong.PeekableLongIterator;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/*
+ * Множество id пользователей, поставивших лайк, без упаковки в Long. Пока лайков немного,
+ * они хранятся в отсортированном массиве, после ARRAY_LIMIT - в сжатом битмапе.
+ * Итерация идет по возрастанию id, как у TreeSet.
+ */
+@JsonSerialize(using = LikeSetSerializer.class)
+public class LikeSet extends AbstractSet<Long> {
+    private static final int ARRAY_LIMIT = 256;
+    private static final long[] EMPTY = new long[0];
+
+    private long[] ids = EMPTY;
+    private int size;
+    private Roaring64Bitmap bitmap;
+
+    public LikeSet() {
+    }
+
+    public LikeSet(LikeSet other) {
+        ids = Arrays.copyOf(other.ids, other.size);
+        size = other.size;
+        bitmap = other.bitmap == null ? null : other.bitmap.clone();
+    }
+
+    public boolean add(long id) {
+        if (bitmap != null) {
+            if (bitmap.contains(id)) {
+                return false;
+            }
+            bitmap.addLong(id);
+            size++;
+            return true;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return false;
+        }
+        if (size == ARRAY_LIMIT) {
+            switchToBitmap();
+            return add(id);
+        }
+        index = -index - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+        }
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = id;
+        size++;
+        return true;
+    }
+
+    public boolean remove(long id) {
+        if (bitmap != null) {
+            if (!bitmap.contains(id)) {
+                return false;
+            }
+            bitmap.removeLong(id);
+            size--;
+            if (size < ARRAY_LIMIT / 2) {
+                switchToArray();
+            }
+            return true;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    public boolean contains(long id) {
+        return bitmap != null ? bitmap.contains(id) : Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    public void forEachLong(LongConsumer action) {
+        if (bitmap != null) {
+            bitmap.forEach(action::accept);
+        } else {
+            for (int i = 0; i < size; i++) {
+                action.accept(ids[i]);
+            }
+        }
+    }
+
+    public long[] toLongArray() {
+        return bitmap != null ? bitmap.toArray() : Arrays.copyOf(ids, size);
+    }
+
+    // не больше limit id, которые больше after, по возрастанию
+    public long[] page(long after, int limit) {
+        long from = Math.max(after, 0) + 1;
+        if (bitmap != null) {
+            long[] page = new long[Math.min(limit, size)];
+            PeekableLongIterator iterator = bitmap.getLongIteratorFrom(from);
+            int count = 0;
+            while (count < page.length && iterator.hasNext()) {
+                page[count++] = iterator.next();
+            }
+            return Arrays.copyOf(page, count);
+        }
+        int start = Arrays.binarySearch(ids, 0, size, from);
+        start = start >= 0 ? start : -start - 1;
+        return Arrays.copyOfRange(ids, start, start + Math.min(limit, size - start));
+    }
+
+    @Override
+    public boolean add(Long id) {
+        return add(id.longValue());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Long && remove(((Long) o).longValue());
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains(((Long) o).longValue());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        ids = EMPTY;
+        size = 0;
+        bitmap = null;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        long[] values = toLongArray();
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            @Override
+            public Long next() {
+                if (next >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[next++];
+            }
+
+            @Override
+            public void remove() {
+                if (next == 0) {
+                    throw new IllegalStateException();
+                }
+                LikeSet.this.remove(values[next - 1]);
+            }
+        };
+    }
+
+    private void switchToBitmap() {
+        bitmap = new Roaring64Bitmap();
+        for (int i = 0; i < size; i++) {
+            bitmap.addLong(ids[i]);
+        }
+        ids = EMPTY;
+    }
+
+    private void switchToArray() {
+        long[] values = new long[ARRAY_LIMIT];
+        int[] i = {0};
+        bitmap.forEach(id -> values[i[0]++] = id);
+        ids = values;
+        bitmap = null;
+    }
+}
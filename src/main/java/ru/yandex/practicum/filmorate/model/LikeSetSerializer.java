@@ -0,0 +1,32 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+public class LikeSetSerializer extends StdSerializer<LikeSet> {
+
+    public LikeSetSerializer() {
+        super(LikeSet.class);
+    }
+
+    @Override
+    public void serialize(LikeSet likes, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartArray(likes, likes.size());
+        try {
+            likes.forEachLong(id -> {
+                try {
+                    generator.writeNumber(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+    }
+}
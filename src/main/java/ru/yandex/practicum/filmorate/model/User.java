@@ -6,13 +6,21 @@ import lombok.Data;
 import javax.validation.constraints.*;
 import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class User {
+    public static final String NAME = "name";
+    public static final String LOGIN = "login";
+    public static final String BIRTHDAY = "birthday";
+    public static final String EMAIL = "email";
+    public static final String FRIENDS = "friends";
+    public static final Set<String> FIELDS = Set.of(FieldSet.ID, NAME, LOGIN, BIRTHDAY, EMAIL, FRIENDS);
+
     private long id;
 
     private String name;
@@ -42,4 +50,21 @@ public class User {
         values.put("email", email);
         return values;
     }
+
+    public Map<String, Object> toView(FieldSet fields) {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put(FieldSet.ID, id);
+        putIf(view, fields, NAME, name);
+        putIf(view, fields, LOGIN, login);
+        putIf(view, fields, BIRTHDAY, birthday);
+        putIf(view, fields, EMAIL, email);
+        putIf(view, fields, FRIENDS, friends);
+        return view;
+    }
+
+    private static void putIf(Map<String, Object> view, FieldSet fields, String field, Object value) {
+        if (fields.has(field)) {
+            view.put(field, value);
+        }
+    }
 }
@@ -4,45 +4,99 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
-import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class FilmService {
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
+    private final SingleFlight<List<?>, Film> filmLoads;
+    private final SingleFlight<List<?>, List<Film>> topLoads;
+    private final SingleFlights singleFlights;
 
+    public FilmService(FilmStorage filmStorage, UserStorage userStorage) {
+        this(filmStorage, userStorage, SingleFlights.disabled());
+    }
 
     @Autowired
-    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage, @Qualifier("userDbStorage") UserStorage userStorage) {
+    public FilmService(@Qualifier("tieredFilmStorage") FilmStorage filmStorage,
+                       @Qualifier("tieredUserStorage") UserStorage userStorage, SingleFlights singleFlights) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
+        this.filmLoads = singleFlights.create("film");
+        this.topLoads = singleFlights.create("popular");
+        this.singleFlights = singleFlights;
     }
 
+    @Transactional(rollbackFor = DataExistException.class)
     public Film addFilm(Film film) throws ValidationException, DataExistException {
         if (notValidate(film)) {
             throw new ValidationException("Валидация не пройдена");
         }
+        singleFlights.invalidate();
         return filmStorage.addFilm(film);
     }
 
+    @Transactional
+    public List<BulkItemResult> addFilms(List<Film> films) {
+        Set<Long> existing = filmStorage.findExistingIds(films.stream()
+                .map(Film::getId)
+                .filter(id -> id != 0)
+                .collect(Collectors.toSet()));
+        List<BulkItemResult> results = new ArrayList<>(films.size());
+        List<Film> valid = new ArrayList<>();
+        for (Film film : films) {
+            try {
+                notValidate(film);
+                if (existing.contains(film.getId())) {
+                    throw new ValidationException("Такой фильм уже существует.");
+                }
+                valid.add(film);
+                results.add(null);
+            } catch (ValidationException e) {
+                results.add(BulkItemResult.builder().error(e.getMessage()).build());
+            }
+        }
+        singleFlights.invalidate();
+        filmStorage.addFilms(valid);
+        Iterator<Film> saved = valid.iterator();
+        results.replaceAll(result -> result != null ? result
+                : BulkItemResult.builder().success(true).id(saved.next().getId()).build());
+        return results;
+    }
+
+    @Transactional(rollbackFor = DataExistException.class)
     public Film updateFilm(Film film) throws DataExistException, ValidationException {
         if (notValidate(film)) {
             throw new ValidationException("Валидация не пройдена");
         }
+        singleFlights.invalidate();
         return filmStorage.updateFilm(film);
     }
 
+    @Transactional(rollbackFor = DataExistException.class)
     public void removeFilmById(long id) throws DataExistException {
+        singleFlights.invalidate();
         filmStorage.removeFilmById(id);
     }
 
@@ -50,8 +104,32 @@ public class FilmService {
         return filmStorage.getAllFilms();
     }
 
+    public List<Film> getAllFilms(FieldSet fields) {
+        return filmStorage.getAllFilms(fields);
+    }
+
+    public List<Film> getFilms(long after, int limit) {
+        return getFilms(after, limit, FieldSet.ALL);
+    }
+
+    public List<Film> getFilms(long after, int limit, FieldSet fields) {
+        if (limit <= 0) {
+            log.debug("Размер страницы фильмов {} не положительный", limit);
+            throw new ValidationException("Размер страницы должен быть положительным.");
+        }
+        return filmStorage.getFilms(after, Math.min(limit, MAX_PAGE_SIZE), fields);
+    }
+
+    public void forEachFilm(Consumer<Film> action) {
+        filmStorage.forEachFilm(action);
+    }
+
     public Film getFilmById(long id) throws DataExistException {
-        Film film = filmStorage.getFilmById(id);
+        return getFilmById(id, FieldSet.ALL);
+    }
+
+    public Film getFilmById(long id, FieldSet fields) throws DataExistException {
+        Film film = filmLoads.load(Arrays.asList(id, fields), () -> filmStorage.getFilmById(id, fields));
         if (film == null) {
             log.info("Фильм с id {} не найден ", id);
             throw new DataExistException("Такой фильм не существует.");
@@ -60,31 +138,91 @@ public class FilmService {
         return film;
     }
 
+    public List<Film> getFilmsByIds(List<Long> ids, FieldSet fields) {
+        if (ids.size() > MAX_PAGE_SIZE) {
+            log.debug("Запрошено {} фильмов по id", ids.size());
+            throw new ValidationException("Можно запросить не больше " + MAX_PAGE_SIZE + " id.");
+        }
+        return filmStorage.getFilmsByIds(ids, fields);
+    }
+
+    @Transactional(rollbackFor = DataExistException.class)
     public void addLike(Long filmId, Long userId) throws DataExistException {
-        Film film = getFilmById(filmId);
-        User user = userStorage.getUserById(userId);
-        if(film == null || user == null) {
+        if (!filmStorage.exists(filmId) || !userStorage.exists(userId)) {
             log.debug("Пользователь с ID {} или фильм с ID {} не существуют.", userId, filmId);
             throw new DataExistException("Такой пользователь или фильм не существуют.");
         }
+        singleFlights.invalidate();
         filmStorage.addLike(filmId, userId);
     }
 
+    @Transactional
+    public List<BulkItemResult> addLikes(List<FilmLike> likes) {
+        Set<Long> films = filmStorage.findExistingIds(likes.stream()
+                .map(FilmLike::getFilmId)
+                .collect(Collectors.toSet()));
+        Set<Long> users = userStorage.findExistingIds(likes.stream()
+                .map(FilmLike::getUserId)
+                .collect(Collectors.toSet()));
+        List<BulkItemResult> results = new ArrayList<>(likes.size());
+        List<FilmLike> valid = new ArrayList<>();
+        for (FilmLike like : likes) {
+            if (films.contains(like.getFilmId()) && users.contains(like.getUserId())) {
+                valid.add(like);
+                results.add(BulkItemResult.builder().success(true).build());
+            } else {
+                log.debug("Пользователь с ID {} или фильм с ID {} не существуют.", like.getUserId(), like.getFilmId());
+                results.add(BulkItemResult.builder().error("Такой пользователь или фильм не существуют.").build());
+            }
+        }
+        singleFlights.invalidate();
+        filmStorage.addLikes(valid);
+        return results;
+    }
+
+    @Transactional(rollbackFor = DataExistException.class)
     public void removeLike(Long filmId, Long userId) throws DataExistException {
-        Film film = getFilmById(filmId);
-        User user = userStorage.getUserById(userId);
-        if(film == null || user == null) {
+        if (!filmStorage.exists(filmId) || !userStorage.exists(userId)) {
             log.debug("Пользователь с ID {} или фильм с ID {} не существуют.", userId, filmId);
             throw new DataExistException("Такой пользователь или фильм не существуют.");
         }
+        singleFlights.invalidate();
         filmStorage.removeLike(filmId, userId);
     }
 
+    public int getLikesCount(long filmId) throws DataExistException {
+        Integer count = filmStorage.getLikesCount(filmId);
+        if (count == null) {
+            log.info("Фильм с id {} не найден ", filmId);
+            throw new DataExistException("Такой фильм не существует.");
+        }
+        return count;
+    }
+
+    public List<Long> getLikes(long filmId, long after, int limit) throws DataExistException {
+        if (limit <= 0) {
+            log.debug("Размер страницы лайков {} не положительный", limit);
+            throw new ValidationException("Размер страницы должен быть положительным.");
+        }
+        List<Long> likes = filmStorage.getLikes(filmId, after, Math.min(limit, MAX_PAGE_SIZE));
+        if (likes == null) {
+            log.info("Фильм с id {} не найден ", filmId);
+            throw new DataExistException("Такой фильм не существует.");
+        }
+        return likes;
+    }
+
     public List<Film> getTopFilms(int count) {
-        return filmStorage.getAllFilms().stream()
-                .sorted((x1, x2) ->  x2.getLikesCount() - x1.getLikesCount())
-                .limit(count)
-                .collect(Collectors.toList());
+        return getTopFilms(count, null, null);
+    }
+
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId) {
+        return getTopFilms(count, genreId, mpaId, FieldSet.ALL);
+    }
+
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId, FieldSet fields) {
+        return topLoads.load(Arrays.asList(count, genreId, mpaId, fields),
+                () -> filmStorage.getTopFilms(count, genreId, mpaId, fields));
     }
 
 
@@ -0,0 +1,115 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Склейка одинаковых одновременных чтений: первый вызов с ключом выполняет загрузку, остальные
+ * ждут его результат не дольше maxWaitMs, а после этого загружают сами. Результат общий для всех
+ * дождавшихся, поэтому менять его нельзя.
+ * Загрузка помечается эпохой изменений на момент старта. После закоммиченной записи эпоха растет
+ * (SingleFlights.invalidate), и новые вызовы к более старой загрузке уже не присоединяются: она
+ * могла прочитать данные до записи. Такой вызов начинает свою загрузку и заменяет старую в карте.
+ */
+@Slf4j
+public class SingleFlight<K, V> {
+    private final String name;
+    private final boolean enabled;
+    private final long maxWaitMs;
+    private final DistributionSummary callers;
+    private final Counter timeouts;
+    private final AtomicLong epoch;
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    SingleFlight(String name, boolean enabled, long maxWaitMs, DistributionSummary callers, Counter timeouts,
+                 AtomicLong epoch) {
+        this.name = name;
+        this.enabled = enabled;
+        this.maxWaitMs = maxWaitMs;
+        this.callers = callers;
+        this.timeouts = timeouts;
+        this.epoch = epoch;
+    }
+
+    public <E extends Exception> V load(K key, Loader<V, E> loader) throws E {
+        if (!enabled) {
+            return loader.load();
+        }
+        Flight<V> flight = new Flight<>(epoch.get());
+        Flight<V> running = flights.putIfAbsent(key, flight);
+        while (running != null && running.epoch < flight.epoch) {
+            if (flights.replace(key, running, flight)) {
+                running = null;
+            } else {
+                running = flights.putIfAbsent(key, flight);
+            }
+        }
+        if (running == null) {
+            return lead(key, flight, loader);
+        }
+        running.callers.incrementAndGet();
+        try {
+            return running.result.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            log.debug("Загрузка {} по ключу {} не уложилась в {} мс, загружаем сами", name, key, maxWaitMs);
+            return loader.load();
+        } catch (ExecutionException e) {
+            throw SingleFlight.<E>rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание загрузки " + name + " прервано", e);
+        }
+    }
+
+    private <E extends Exception> V lead(K key, Flight<V> flight, Loader<V, E> loader) throws E {
+        try {
+            V value = loader.load();
+            flight.result.complete(value);
+            return value;
+        } catch (Throwable e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            callers.record(flight.callers.get());
+        }
+    }
+
+    // загрузчики с одним ключом одинаковые, поэтому проверяемое исключение первого имеет тип E
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> RuntimeException rethrow(Throwable cause) throws E {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw (E) cause;
+    }
+
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    private static class Flight<V> {
+        private final long epoch;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final AtomicInteger callers = new AtomicInteger(1);
+
+        private Flight(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.Transactions;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Создает SingleFlight с общими настройками и метриками:
+ * filmorate.singleflight.callers - сколько вызовов обслужила одна загрузка,
+ * filmorate.singleflight.timeouts - сколько вызовов не дождались чужой загрузки.
+ * Эпоха изменений общая для всех загрузок: запись пользователя меняет и списки друзей,
+ * и лайки фильмов, поэтому сервисы после записи сбрасывают все загрузки сразу.
+ */
+@Component
+public class SingleFlights {
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final long maxWaitMs;
+    private final AtomicLong epoch = new AtomicLong();
+
+    public SingleFlights(MeterRegistry registry,
+                         @Value("${filmorate.singleflight.enabled:true}") boolean enabled,
+                         @Value("${filmorate.singleflight.max-wait-ms:1000}") long maxWaitMs) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    // без склейки: для сервисов, собранных вне контекста Spring
+    public static SingleFlights disabled() {
+        return new SingleFlights(new SimpleMeterRegistry(), false, 0);
+    }
+
+    public <K, V> SingleFlight<K, V> create(String name) {
+        DistributionSummary callers = DistributionSummary.builder("filmorate.singleflight.callers")
+                .description("Число вызовов, обслуженных одной загрузкой")
+                .tag("load", name)
+                .register(registry);
+        Counter timeouts = Counter.builder("filmorate.singleflight.timeouts")
+                .description("Число вызовов, не дождавшихся чужой загрузки")
+                .tag("load", name)
+                .register(registry);
+        return new SingleFlight<>(name, enabled, maxWaitMs, callers, timeouts, epoch);
+    }
+
+    /*
+     * Вызывается сервисом перед записью. Эпоха растет после коммита транзакции, чтобы чтения,
+     * начатые до коммита, не стали новыми общими загрузками для тех, кто пришел после него.
+     * Без транзакции эпоха растет сразу.
+     */
+    public void invalidate() {
+        Transactions.afterCommit(epoch::incrementAndGet);
+    }
+}
@@ -4,36 +4,85 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class UserService {
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final UserStorage userStorage;
+    private final SingleFlight<List<Long>, List<User>> friendLoads;
+    private final SingleFlights singleFlights;
+
+    public UserService(UserStorage userStorage) {
+        this(userStorage, SingleFlights.disabled());
+    }
 
     @Autowired
-        public UserService(@Qualifier("userDbStorage") UserStorage userStorage) {
+        public UserService(@Qualifier("tieredUserStorage") UserStorage userStorage, SingleFlights singleFlights) {
         this.userStorage = userStorage;
+        this.friendLoads = singleFlights.create("friends");
+        this.singleFlights = singleFlights;
     }
 
+    @Transactional(rollbackFor = DataExistException.class)
     public User addUser(User user) throws DataExistException, ValidationException {
         if(validate(user)) {
             throw new ValidationException("Валидация не пройдена");
         }
 
+        singleFlights.invalidate();
         return userStorage.addUser(validateName(user));
     }
 
+    @Transactional
+    public List<BulkItemResult> addUsers(List<User> users) {
+        Set<Long> existing = userStorage.findExistingIds(users.stream()
+                .map(User::getId)
+                .filter(id -> id != 0)
+                .collect(Collectors.toSet()));
+        List<BulkItemResult> results = new ArrayList<>(users.size());
+        List<User> valid = new ArrayList<>();
+        for (User user : users) {
+            try {
+                validate(user);
+                if (existing.contains(user.getId())) {
+                    throw new ValidationException("Такой пользователь уже существует.");
+                }
+                valid.add(validateName(user));
+                results.add(null);
+            } catch (ValidationException e) {
+                results.add(BulkItemResult.builder().error(e.getMessage()).build());
+            }
+        }
+        singleFlights.invalidate();
+        userStorage.addUsers(valid);
+        Iterator<User> saved = valid.iterator();
+        results.replaceAll(result -> result != null ? result
+                : BulkItemResult.builder().success(true).id(saved.next().getId()).build());
+        return results;
+    }
+
+    @Transactional(rollbackFor = DataExistException.class)
     public User updateUser(User user) throws DataExistException, ValidationException {
         if(validate(user)) {
             throw new ValidationException("Валидация не пройдена");
         }
+        singleFlights.invalidate();
         return userStorage.updateUser(validateName(user));
     }
 
@@ -41,6 +90,18 @@ public class UserService {
         return userStorage.getAllUsers();
     }
 
+    public void forEachUser(Consumer<User> action) {
+        userStorage.forEachUser(action);
+    }
+
+    public List<User> getUsers(long after, int limit) {
+        if (limit <= 0) {
+            log.debug("Размер страницы пользователей {} не положительный", limit);
+            throw new ValidationException("Размер страницы должен быть положительным.");
+        }
+        return userStorage.getUsers(after, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
     public User getUserById(long id) throws DataExistException {
         log.info("Поиск пользователя с id {} ", id);
         User user = userStorage.getUserById(id);
@@ -52,24 +113,39 @@ public class UserService {
         return user;
     }
 
+    public List<User> getUsersByIds(List<Long> ids) {
+        if (ids.size() > MAX_PAGE_SIZE) {
+            log.debug("Запрошено {} пользователей по id", ids.size());
+            throw new ValidationException("Можно запросить не больше " + MAX_PAGE_SIZE + " id.");
+        }
+        return userStorage.getUsersByIds(ids);
+    }
+
+    @Transactional(rollbackFor = DataExistException.class)
     public void removeUserById(long id) throws DataExistException {
+        singleFlights.invalidate();
         userStorage.removeUserById(id);
     }
 
+    @Transactional(rollbackFor = DataExistException.class)
     public void addFriend(long userId, long friendId) throws DataExistException {
+        singleFlights.invalidate();
         userStorage.addFriend(userId, friendId);
     }
 
+    @Transactional(rollbackFor = DataExistException.class)
     public void removeFriend(long userId, long friendId) throws DataExistException {
-       userStorage.removeFriend(userId, friendId);
+        singleFlights.invalidate();
+        userStorage.removeFriend(userId, friendId);
     }
 
+    // ключ из одного id - друзья пользователя, из двух - общие друзья
     public List<User> getAllFriends(long id) throws DataExistException {
-        return userStorage.getAllFriends(id);
+        return friendLoads.load(List.of(id), () -> userStorage.getAllFriends(id));
     }
 
     public List<User> getCommonFriends(long id, long otherId) throws DataExistException {
-        return userStorage.getCommonFriends(id, otherId);
+        return friendLoads.load(List.of(id, otherId), () -> userStorage.getCommonFriends(id, otherId));
     }
 
     private boolean validate(User user) throws ValidationException {
@@ -0,0 +1,52 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Битовая карта существующих id для быстрых проверок без обращения к базе.
+ * Карта может только недосчитываться: новые id попадают в нее после коммита, а удаленные
+ * убираются сразу. Поэтому "есть" в карте - точный ответ, а "нет" нужно перепроверить в базе.
+ */
+public class LiveIds {
+    private final Roaring64Bitmap ids = new Roaring64Bitmap();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return ids.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(long id) {
+        lock.writeLock().lock();
+        try {
+            ids.addLong(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            ids.removeLong(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return ids.getLongCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
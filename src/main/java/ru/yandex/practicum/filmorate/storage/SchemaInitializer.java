@@ -0,0 +1,61 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Инициализация базы вместо стандартной: schema.sql и data.sql выполняются при каждом запуске,
+ * поэтому в них только идемпотентные CREATE и MERGE. Переделки старых баз (чистка дублей,
+ * ключи, пересчет колонок) идут отдельными миграциями из resources/migration, каждая один раз:
+ * примененные версии записываются в SCHEMA_VERSION. Миграция, прерванная посередине,
+ * повторится при следующем запуске, поэтому ее шаги тоже должны быть повторяемыми.
+ * Бин остается инициализатором базы, так что хранилища читают ее уже после миграций.
+ */
+@Component
+@Slf4j
+public class SchemaInitializer extends SqlDataSourceScriptDatabaseInitializer {
+    private static final List<String> MIGRATIONS = List.of(
+            "migration/V1__keys_and_likes_count.sql"
+    );
+
+    private final DataSource dataSource;
+
+    public SchemaInitializer(DataSource dataSource, SqlInitializationProperties properties) {
+        super(dataSource, properties);
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public boolean initializeDatabase() {
+        boolean initialized = super.initializeDatabase();
+        if (initialized) {
+            migrate();
+        }
+        return initialized;
+    }
+
+    private void migrate() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Set<Integer> applied = new HashSet<>(
+                jdbcTemplate.queryForList("select VERSION from SCHEMA_VERSION", Integer.class));
+        for (int i = 0; i < MIGRATIONS.size(); i++) {
+            int version = i + 1;
+            if (applied.contains(version)) {
+                continue;
+            }
+            log.info("Применяется миграция базы {}: {}", version, MIGRATIONS.get(i));
+            new ResourceDatabasePopulator(new ClassPathResource(MIGRATIONS.get(i))).execute(dataSource);
+            jdbcTemplate.update("insert into SCHEMA_VERSION (VERSION) values (?)", version);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Набор блокировок, между которыми распределяются сущности по id. Изменения одной сущности
+ * идут под одной блокировкой, а разные сущности чаще всего попадают на разные блокировки.
+ */
+public class StripedLocks {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLocks() {
+        this(Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(2, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    public void lock(long id) {
+        locks[index(id)].lock();
+    }
+
+    public void unlock(long id) {
+        locks[index(id)].unlock();
+    }
+
+    /*
+     * Две блокировки берутся всегда в порядке индексов, поэтому встречные операции
+     * над парой не могут заблокировать друг друга.
+     */
+    public void lock(long id, long otherId) {
+        int first = index(id);
+        int second = index(otherId);
+        locks[Math.min(first, second)].lock();
+        if (first != second) {
+            locks[Math.max(first, second)].lock();
+        }
+    }
+
+    public void unlock(long id, long otherId) {
+        int first = index(id);
+        int second = index(otherId);
+        if (first != second) {
+            locks[Math.max(first, second)].unlock();
+        }
+        locks[Math.min(first, second)].unlock();
+    }
+
+    private int index(long id) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}
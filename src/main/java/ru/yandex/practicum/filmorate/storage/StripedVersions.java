@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Версии для догрузки из базы в память. Изменение сущности увеличивает версию ее id и применяется
+ * в памяти под блокировкой id, а догрузка кладет прочитанное из базы под той же блокировкой и
+ * только если версия не менялась с начала чтения. Иначе прочитанное могло устареть: его уже
+ * перекрыло или удалило изменение, примененное раньше догрузки.
+ * Версии хранятся по полосам, поэтому изменение соседнего id иногда отменяет догрузку зря -
+ * это лишний промах, но не устаревшие данные.
+ */
+public class StripedVersions {
+    private final StripedLocks locks = new StripedLocks();
+    private final AtomicLongArray versions;
+    private final int mask;
+
+    public StripedVersions() {
+        this(Runtime.getRuntime().availableProcessors() * 64);
+    }
+
+    public StripedVersions(int stripes) {
+        int size = Integer.highestOneBit(Math.max(2, stripes - 1)) << 1;
+        versions = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    // версия, которую нужно запомнить до чтения из базы
+    public long get(long id) {
+        return versions.get(index(id));
+    }
+
+    public void change(long id, Runnable action) {
+        locks.lock(id);
+        try {
+            versions.incrementAndGet(index(id));
+            action.run();
+        } finally {
+            locks.unlock(id);
+        }
+    }
+
+    public boolean loadIfUnchanged(long id, long version, Runnable load) {
+        locks.lock(id);
+        try {
+            if (versions.get(index(id)) != version) {
+                return false;
+            }
+            load.run();
+            return true;
+        } finally {
+            locks.unlock(id);
+        }
+    }
+
+    private int index(long id) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ * Действия, которые должны видеть только закоммиченные данные: кэши, память, эпохи загрузок.
+ * В транзакции действие выполняется после коммита и пропадает при откате, без транзакции - сразу.
+ */
+public final class Transactions {
+    private Transactions() {
+    }
+
+    public static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
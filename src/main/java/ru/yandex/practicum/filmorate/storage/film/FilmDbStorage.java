@@ -1,18 +1,37 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.LiveIds;
+import ru.yandex.practicum.filmorate.storage.Transactions;
 import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mapper.FilmRowMapper;
 import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
 
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @Slf4j
@@ -21,41 +40,121 @@ public class FilmDbStorage implements FilmStorage {
     private final JdbcTemplate jdbcTemplate;
     private final MpaStorage mpaStorage;
     private final GenreStorage genreStorage;
+    private final FilmRowMapper filmRowMapper;
+    private final SimpleJdbcInsert filmInsert;
+    private final int batchSize;
+    private final CacheManager cacheManager;
+    private final LikeWriteBehind likeWriteBehind;
+    private final LikeCounter likeCounter;
+    private volatile LiveIds liveIds = new LiveIds();
+    private volatile FilmLeaderboard leaderboard = new FilmLeaderboard();
 
-    public FilmDbStorage(JdbcTemplate jdbcTemplate, MpaStorage mpaStorage, GenreStorage genreStorage) {
+    private static final String FILM_SELECT = "select " + FilmRowMapper.COLUMNS + " from FILM_TABLE ";
+    private static final String FILM_COUNT_SELECT = "select " + FilmRowMapper.COLUMNS + ", LIKES_COUNT from FILM_TABLE ";
+    private static final int STREAM_CHUNK_SIZE = 500;
+    private static final String LIKE_MERGE = "merge into FILM_USER FU using (values (?, ?)) L(FILM_ID, USER_ID) " +
+            "on FU.FILM_ID = L.FILM_ID and FU.USER_ID = L.USER_ID " +
+            "when not matched then insert (FILM_ID, USER_ID) values (L.FILM_ID, L.USER_ID)";
+    private static final String LIKE_DELETE = "delete from FILM_USER where FILM_ID = ? and USER_ID = ?";
+
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, MpaStorage mpaStorage, GenreStorage genreStorage,
+                         FilmRowMapper filmRowMapper, @Value("${filmorate.bulk.batch-size:1000}") int batchSize,
+                         CacheManager cacheManager, LikeWriteBehind likeWriteBehind, LikeCounter likeCounter) {
         this.jdbcTemplate = jdbcTemplate;
         this.mpaStorage = mpaStorage;
         this.genreStorage = genreStorage;
+        this.filmRowMapper = filmRowMapper;
+        this.filmInsert = new SimpleJdbcInsert(jdbcTemplate);
+        this.filmInsert.withTableName("film_table")
+                .usingColumns("name", "description", "release_date", "film_duration", "mpa_id")
+                .usingGeneratedKeyColumns("film_id")
+                .withoutTableColumnMetaDataAccess();
+        this.filmInsert.compile();
+        this.batchSize = batchSize;
+        this.cacheManager = cacheManager;
+        this.likeWriteBehind = likeWriteBehind;
+        this.likeCounter = likeCounter;
+    }
+
+    @PostConstruct
+    public void init() {
+        rebuildLeaderboard();
+        likeWriteBehind.start(this::writeLikes);
     }
 
     @Override
+    @Transactional(rollbackFor = DataExistException.class)
     public Film addFilm(Film film) throws ValidationException, DataExistException {
-        if (getFilmById(film.getId()) != null) {
+        if (exists(film.getId())) {
             log.debug("Попытка создать фильм, который уже существует");
             throw new DataExistException("Такой фильм уже существует.");
         }
         log.debug("Добавляем фильм {}", film.toMap());
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName("film_table")
-                .usingGeneratedKeyColumns("film_id");
-        long id = simpleJdbcInsert.executeAndReturnKey(film.toMap()).longValue();
+        long id = filmInsert.executeAndReturnKey(film.toMap()).longValue();
         film.setId(id);
-        if (film.getGenres() != null) {
-            for (Genre genre : film.getGenres()) {
-                jdbcTemplate.update("insert into FILM_GENRE(FILM_ID, GENRE_ID)" +
-                                "values (?, ?)",
-                        film.getId(),
-                        genre.getId());
-            }
-        }
-        film.setGenres(genreStorage.getGenresByFilmId(film.getId()));
+        saveGenres(film, Set.of());
+        film.setMpa(mpaStorage.getMpaById(film.getMpa().getId()));
+        List<Integer> genreIds = getGenreIds(film);
+        Transactions.afterCommit(() -> {
+            liveIds.add(film.getId());
+            leaderboard.putFilm(film.getId(), film.getMpa().getId(), genreIds);
+        });
         log.debug("Фильм {} добавлен, id {}", film.getName(), film.getId());
         return film;
     }
 
     @Override
+    public void addFilms(List<Film> films) {
+        String sqlQuery = "insert into FILM_TABLE(NAME, DESCRIPTION, RELEASE_DATE, FILM_DURATION, MPA_ID) " +
+                "values (?, ?, ?, ?, ?)";
+        for (int from = 0; from < films.size(); from += batchSize) {
+            List<Film> batch = films.subList(from, Math.min(from + batchSize, films.size()));
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                try (PreparedStatement ps = con.prepareStatement(sqlQuery, new String[]{"FILM_ID"})) {
+                    for (Film film : batch) {
+                        ps.setString(1, film.getName());
+                        ps.setString(2, film.getDescription());
+                        ps.setObject(3, film.getReleaseDate());
+                        ps.setInt(4, film.getDuration());
+                        ps.setInt(5, film.getMpa().getId());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (Film film : batch) {
+                            keys.next();
+                            film.setId(keys.getLong(1));
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        List<Object[]> genres = new ArrayList<>();
+        for (Film film : films) {
+            Set<Integer> genreIds = new TreeSet<>(film.getGenres() == null ? List.of() : getGenreIds(film));
+            genreIds.forEach(genreId -> genres.add(new Object[]{film.getId(), genreId}));
+            film.setGenres(genreIds.stream()
+                    .map(genreStorage::getGenreById)
+                    .collect(Collectors.toList()));
+            film.setMpa(mpaStorage.getMpaById(film.getMpa().getId()));
+        }
+        jdbcTemplate.batchUpdate("insert into FILM_GENRE(FILM_ID, GENRE_ID) values (?, ?)", genres, batchSize,
+                (ps, args) -> {
+                    ps.setLong(1, (Long) args[0]);
+                    ps.setInt(2, (Integer) args[1]);
+                });
+        Transactions.afterCommit(() -> films.forEach(film -> {
+            liveIds.add(film.getId());
+            leaderboard.putFilm(film.getId(), film.getMpa().getId(), getGenreIds(film));
+        }));
+        log.debug("Добавлено фильмов: {}, жанров: {}", films.size(), genres.size());
+    }
+
+    @Override
+    @Transactional(rollbackFor = DataExistException.class)
     public Film updateFilm(Film film) throws DataExistException, ValidationException {
-        if (getFilmById(film.getId()) == null) {
+        if (!exists(film.getId())) {
             log.debug("Попытка обновить фильм, который не существует");
             throw new DataExistException("Такой фильм не существует.");
         }
@@ -65,15 +164,17 @@ public class FilmDbStorage implements FilmStorage {
                 film.getMpa().getId(), film.getId());
 
         if (film.getGenres() != null) {
-            jdbcTemplate.update("delete from FILM_GENRE where FILM_ID = ?", film.getId());
-            for (Genre genre : film.getGenres()) {
-                jdbcTemplate.update("insert into FILM_GENRE(FILM_ID, GENRE_ID)" +
-                                "values (?, ?)",
-                        film.getId(),
-                        genre.getId());
-            }
+            String genresQuery = "select GENRE_ID from FILM_GENRE where FILM_ID = ?";
+            saveGenres(film, new HashSet<>(jdbcTemplate.queryForList(genresQuery, Integer.class, film.getId())));
+        } else {
+            film.setGenres(genreStorage.getGenresByFilmId(film.getId()));
         }
-        film.setGenres(genreStorage.getGenresByFilmId(film.getId()));
+        film.setMpa(mpaStorage.getMpaById(film.getMpa().getId()));
+        List<Integer> genreIds = getGenreIds(film);
+        Transactions.afterCommit(() -> {
+            leaderboard.putFilm(film.getId(), film.getMpa().getId(), genreIds);
+            evictFilms(List.of(film.getId()));
+        });
         log.debug("Фильм {} с id {} обновлен", film.getName(), film.getId());
         return film;
     }
@@ -83,6 +184,11 @@ public class FilmDbStorage implements FilmStorage {
     public void removeFilmById(long id) throws DataExistException {
         String sqlQuery = "delete from film_table where film_id = ?";
         if (jdbcTemplate.update(sqlQuery, id) > 0) {
+            liveIds.remove(id);
+            Transactions.afterCommit(() -> {
+                leaderboard.removeFilm(id);
+                evictFilms(List.of(id));
+            });
             log.info("Фильм с id {} удален.", id);
         } else {
             log.info("Фильм с id {} не найден ", id);
@@ -92,43 +198,115 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public List<Film> getAllFilms() {
-        String sqlQuery = "select* from film_table";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> Film.builder()
-                .id(rs.getLong("film_id"))
-                .name(rs.getString("name"))
-                .description(rs.getString("description"))
-                .releaseDate(Objects.requireNonNull(rs.getDate("release_date")).toLocalDate())
-                .duration(rs.getInt("film_duration"))
-                .mpa(mpaStorage.getMpaById(rs.getInt("mpa_id")))
-                .genres(genreStorage.getGenresByFilmId(rs.getLong("film_id")))
-                .likes(new TreeSet<>(getLikes(rs.getLong("film_id"))))
-                .build());
+        return findFilms("");
+    }
+
+    @Override
+    public List<Film> getAllFilms(FieldSet fields) {
+        return findFilms(fields, "");
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit) {
+        return getFilms(after, limit, FieldSet.ALL);
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit, FieldSet fields) {
+        String sqlQuery = "select FILM_ID from FILM_TABLE where FILM_ID > ? order by FILM_ID limit ?";
+        List<Long> ids = jdbcTemplate.queryForList(sqlQuery, Long.class, after, limit);
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return findFilms(fields, "where FILM_ID between ? and ?", ids.get(0), ids.get(ids.size() - 1));
     }
 
+    /*
+     * Фильмы читаются одним курсором без загрузки всего каталога в память. Жанры и лайки
+     * догружаются пачками по STREAM_CHUNK_SIZE фильмов, после чего пачка отдается потребителю.
+     */
     @Override
+    public void forEachFilm(Consumer<Film> action) {
+        Map<Long, Film> chunk = new LinkedHashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(FILM_SELECT + "order by FILM_ID",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_CHUNK_SIZE);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            Film film = filmRowMapper.mapRow(rs, 0);
+            chunk.put(film.getId(), film);
+            if (chunk.size() == STREAM_CHUNK_SIZE) {
+                flushChunk(chunk, action);
+            }
+        });
+        flushChunk(chunk, action);
+    }
+
+    @Override
+    @Cacheable(cacheNames = "films", unless = "#result == null")
     public Film getFilmById(long id) {
-        String sqlQuery = "select* from film_table where film_id = ?";
-        SqlRowSet userRow = jdbcTemplate.queryForRowSet(sqlQuery, id);
-        if (userRow.next()) {
-            log.debug("Найден фильм с id {}.", id);
-            return Film.builder()
-                    .id(userRow.getLong("film_id"))
-                    .name(userRow.getString("name"))
-                    .description(userRow.getString("description"))
-                    .releaseDate(Objects.requireNonNull(userRow.getDate("release_date")).toLocalDate())
-                    .duration(userRow.getInt("film_duration"))
-                    .mpa(mpaStorage.getMpaById(userRow.getInt("mpa_id")))
-                    .genres(genreStorage.getGenresByFilmId(id))
-                    .likes(new TreeSet<>(getLikes(id)))
-                    .build();
+        List<Film> films = findFilms("where FILM_ID = ?", id);
+        if (films.isEmpty()) {
+            return null;
+        }
+        log.debug("Найден фильм с id {}.", id);
+        return films.get(0);
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(List<Long> ids, FieldSet fields) {
+        return findFilmsByIds(fields, ids);
+    }
+
+    @Override
+    public Film getFilmById(long id, FieldSet fields) {
+        List<Film> films = findFilms(fields, "where FILM_ID = ?", id);
+        return films.isEmpty() ? null : films.get(0);
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new HashSet<>();
+        }
+        String sqlQuery = "select FILM_ID from FILM_TABLE where FILM_ID in (" +
+                String.join(",", Collections.nCopies(ids.size(), "?")) + ")";
+        return new HashSet<>(jdbcTemplate.queryForList(sqlQuery, Long.class, ids.toArray()));
+    }
+
+    /*
+     * Проверка без загрузки фильма: сначала карта id в памяти, при промахе - один select 1.
+     * Найденный в базе id в карту не добавляется, он может быть незакоммиченной вставкой.
+     */
+    @Override
+    public boolean exists(long id) {
+        if (id <= 0) {
+            return false;
+        }
+        if (liveIds.contains(id)) {
+            return true;
         }
-        return null;
+        return !jdbcTemplate.queryForList("select 1 from FILM_TABLE where FILM_ID = ?", Integer.class, id).isEmpty();
     }
 
     @Override
     public void addLike(Long filmId, Long userId) {
-        String sqlQuery = "insert into film_user (FILM_ID, USER_ID) values (?, ?)";
-        int c = jdbcTemplate.update(sqlQuery, filmId, userId);
+        if (likeWriteBehind.isEnabled() && likeWriteBehind.offer(filmId, userId, true)) {
+            log.debug("Like пользователя с ID: " + userId + " фильму с ID: " + filmId + " поставлен в очередь");
+            return;
+        }
+        int c;
+        Runnable release = lockLikeChange();
+        try {
+            c = jdbcTemplate.update(LIKE_MERGE, filmId, userId);
+            Transactions.afterCommit(() -> evictFilms(List.of(filmId)));
+            if (c > 0) {
+                Transactions.afterCommit(() -> changeLikes(filmId, c));
+            }
+        } finally {
+            release.run();
+        }
         if (c > 0) {
             log.debug("Пользователь с ID: " + userId + " поставил like фильму с ID: " + filmId);
         } else {
@@ -136,10 +314,60 @@ public class FilmDbStorage implements FilmStorage {
         }
     }
 
+    @Override
+    public Integer getLikesCount(long filmId) {
+        String sqlQuery = "select LIKES_COUNT from FILM_TABLE where FILM_ID = ?";
+        List<Long> counts = jdbcTemplate.queryForList(sqlQuery, Long.class, filmId);
+        if (counts.isEmpty()) {
+            return null;
+        }
+        return (int) (counts.get(0) + likeCounter.getPending(filmId));
+    }
+
+    // страница по первичному ключу (FILM_ID, USER_ID), без чтения остальных лайков фильма
+    @Override
+    public List<Long> getLikes(long filmId, long after, int limit) {
+        if (!exists(filmId)) {
+            return null;
+        }
+        String sqlQuery = "select USER_ID from FILM_USER where FILM_ID = ? and USER_ID > ? order by USER_ID limit ?";
+        return jdbcTemplate.queryForList(sqlQuery, Long.class, filmId, after, limit);
+    }
+
+    @Override
+    public void addLikes(List<FilmLike> likes) {
+        Map<Long, Integer> added;
+        Runnable release = lockLikeChange();
+        try {
+            added = batchLikes(LIKE_MERGE, likes);
+            Transactions.afterCommit(() -> {
+                added.forEach(this::changeLikes);
+                evictFilms(likes.stream().map(FilmLike::getFilmId).collect(Collectors.toSet()));
+            });
+        } finally {
+            release.run();
+        }
+        log.debug("Добавлено лайков: {} из {}", added.values().stream().mapToInt(Integer::intValue).sum(),
+                likes.size());
+    }
+
     @Override
     public void removeLike(Long filmId, Long userId) {
-        String sqlQuery = "delete from film_user where FILM_ID = ? AND USER_ID = ?";
-        int c = jdbcTemplate.update(sqlQuery, filmId, userId);
+        if (likeWriteBehind.isEnabled() && likeWriteBehind.offer(filmId, userId, false)) {
+            log.debug("Удаление like пользователя с ID: " + userId + " фильму с ID: " + filmId + " поставлено в очередь");
+            return;
+        }
+        int c;
+        Runnable release = lockLikeChange();
+        try {
+            c = jdbcTemplate.update(LIKE_DELETE, filmId, userId);
+            Transactions.afterCommit(() -> evictFilms(List.of(filmId)));
+            if (c > 0) {
+                Transactions.afterCommit(() -> changeLikes(filmId, -c));
+            }
+        } finally {
+            release.run();
+        }
         if (c > 0) {
             log.debug("Пользователь с ID: " + userId + " убрал like фильму с ID: " + filmId);
         } else {
@@ -147,9 +375,218 @@ public class FilmDbStorage implements FilmStorage {
         }
     }
 
-    private List<Long> getLikes(long id) {
-        String sqlQuery = "select USER_ID from film_user where FILM_ID = ?";
-        return jdbcTemplate.query(sqlQuery,
-                (rs, rowNum) -> (rs.getLong("user_id")), id);
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId) {
+        return getTopFilms(count, genreId, mpaId, FieldSet.ALL);
+    }
+
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId, FieldSet fields) {
+        return findFilmsByIds(fields, leaderboard.getTop(count, genreId, mpaId));
+    }
+
+    public void rebuildLeaderboard() {
+        Map<Long, Integer> mpaIds = new HashMap<>();
+        Map<Long, List<Integer>> genreIds = new HashMap<>();
+        Map<Long, Long> likes = new HashMap<>();
+        LiveIds ids = new LiveIds();
+        jdbcTemplate.query("select FILM_ID, MPA_ID, LIKES_COUNT from FILM_TABLE", (RowCallbackHandler) rs -> {
+            ids.add(rs.getLong(1));
+            mpaIds.put(rs.getLong(1), (Integer) rs.getObject(2));
+            likes.put(rs.getLong(1), rs.getLong(3) + likeCounter.getPending(rs.getLong(1)));
+        });
+        jdbcTemplate.query("select distinct FILM_ID, GENRE_ID from FILM_GENRE",
+                (RowCallbackHandler) rs -> genreIds.computeIfAbsent(rs.getLong(1), k -> new ArrayList<>())
+                        .add(rs.getInt(2)));
+        FilmLeaderboard rebuilt = new FilmLeaderboard();
+        mpaIds.forEach((filmId, mpaId) -> rebuilt.putFilm(filmId, mpaId, genreIds.get(filmId)));
+        likes.forEach((filmId, count) -> rebuilt.changeLikes(filmId, count.intValue()));
+        leaderboard = rebuilt;
+        liveIds = ids;
+        log.debug("Рейтинг фильмов построен, фильмов: {}", mpaIds.size());
+    }
+
+    private void changeLikes(long filmId, int delta) {
+        leaderboard.changeLikes(filmId, delta);
+        likeCounter.add(filmId, delta);
+    }
+
+    private void writeLikes(Map<FilmLike, Boolean> changes) {
+        List<FilmLike> liked = new ArrayList<>();
+        List<FilmLike> unliked = new ArrayList<>();
+        changes.forEach((like, isLiked) -> (isLiked ? liked : unliked).add(like));
+        Runnable release = lockLikeChange();
+        try {
+            Map<Long, Integer> added = batchLikes(LIKE_MERGE, liked);
+            Map<Long, Integer> removed = batchLikes(LIKE_DELETE, unliked);
+            Transactions.afterCommit(() -> {
+                added.forEach(this::changeLikes);
+                removed.forEach((filmId, c) -> changeLikes(filmId, -c));
+                evictFilms(changes.keySet().stream().map(FilmLike::getFilmId).collect(Collectors.toSet()));
+            });
+        } finally {
+            release.run();
+        }
+        log.debug("Из очереди записано лайков: {}, удалено: {}", liked.size(), unliked.size());
+    }
+
+    private Map<Long, Integer> batchLikes(String sqlQuery, List<FilmLike> likes) {
+        Map<Long, Integer> changed = new HashMap<>();
+        if (likes.isEmpty()) {
+            return changed;
+        }
+        int[][] counts = jdbcTemplate.batchUpdate(sqlQuery, likes, batchSize, (ps, like) -> {
+            ps.setLong(1, like.getFilmId());
+            ps.setLong(2, like.getUserId());
+        });
+        int i = 0;
+        for (int[] batch : counts) {
+            for (int c : batch) {
+                long filmId = likes.get(i++).getFilmId();
+                if (c > 0) {
+                    changed.merge(filmId, c, Integer::sum);
+                }
+            }
+        }
+        return changed;
+    }
+
+    // кэш чистится после коммита: иначе параллельное чтение успело бы положить в него старую строку
+    private void evictFilms(Collection<Long> ids) {
+        Cache cache = cacheManager.getCache("films");
+        if (cache != null) {
+            ids.forEach(cache::evict);
+        }
+    }
+
+    private void saveGenres(Film film, Set<Integer> storedIds) {
+        Set<Integer> requestedIds = new TreeSet<>(film.getGenres() == null ? List.of() : getGenreIds(film));
+        List<Object[]> removed = storedIds.stream()
+                .filter(genreId -> !requestedIds.contains(genreId))
+                .map(genreId -> new Object[]{film.getId(), genreId})
+                .collect(Collectors.toList());
+        List<Object[]> added = requestedIds.stream()
+                .filter(genreId -> !storedIds.contains(genreId))
+                .map(genreId -> new Object[]{film.getId(), genreId})
+                .collect(Collectors.toList());
+        if (!removed.isEmpty()) {
+            jdbcTemplate.batchUpdate("delete from FILM_GENRE where FILM_ID = ? and GENRE_ID = ?", removed);
+        }
+        if (!added.isEmpty()) {
+            jdbcTemplate.batchUpdate("insert into FILM_GENRE(FILM_ID, GENRE_ID) values (?, ?)", added);
+        }
+        log.debug("Жанры фильма с id {}: добавлено {}, удалено {}", film.getId(), added.size(), removed.size());
+        film.setGenres(requestedIds.stream()
+                .map(genreStorage::getGenreById)
+                .collect(Collectors.toList()));
+    }
+
+    /*
+     * Берет LikeCounter.changeLock() до записи в FILM_USER. В транзакции блокировка отпускается
+     * после ее завершения, когда дельта уже учтена; без транзакции - возвращенным действием.
+     */
+    private Runnable lockLikeChange() {
+        Lock lock = likeCounter.changeLock();
+        lock.lock();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return lock::unlock;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.unlock();
+            }
+        });
+        return () -> {
+        };
+    }
+
+    private List<Integer> getGenreIds(Film film) {
+        return film.getGenres().stream()
+                .map(Genre::getId)
+                .collect(Collectors.toList());
+    }
+
+    private List<Film> findFilmsByIds(FieldSet fields, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<Long> distinct = new LinkedHashSet<>(ids);
+        String condition = "where FILM_ID in (" + String.join(",", Collections.nCopies(distinct.size(), "?")) + ")";
+        Map<Long, Film> films = new HashMap<>();
+        for (Film film : findFilms(fields, condition, distinct.toArray())) {
+            films.put(film.getId(), film);
+        }
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private List<Film> findFilms(String condition, Object... args) {
+        return findFilms(FieldSet.ALL, condition, args);
+    }
+
+    /*
+     * Жанры и лайки читаются отдельными запросами только если они запрошены. Число лайков
+     * без самих лайков берется из счетчика LIKES_COUNT в той же строке фильма.
+     */
+    private List<Film> findFilms(FieldSet fields, String condition, Object... args) {
+        boolean countOnly = fields.has(Film.LIKES_COUNT) && !fields.has(Film.LIKES);
+        String sqlQuery = (countOnly ? FILM_COUNT_SELECT : FILM_SELECT) + condition + " order by FILM_ID";
+        Map<Long, Film> films = new LinkedHashMap<>();
+        jdbcTemplate.query(sqlQuery, rs -> {
+            Film film = filmRowMapper.mapRow(rs, 0);
+            if (countOnly) {
+                film.setLikesCount((int) (rs.getLong("LIKES_COUNT") + likeCounter.getPending(film.getId())));
+            }
+            films.put(film.getId(), film);
+        }, args);
+        if (!films.isEmpty()) {
+            if (fields.has(Film.GENRES)) {
+                loadGenres(films, condition, args);
+            }
+            if (fields.has(Film.LIKES)) {
+                loadLikes(films, condition, args);
+            }
+        }
+        return new ArrayList<>(films.values());
+    }
+
+    private void flushChunk(Map<Long, Film> chunk, Consumer<Film> action) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Iterator<Long> ids = chunk.keySet().iterator();
+        long first = ids.next();
+        long last = first;
+        while (ids.hasNext()) {
+            last = ids.next();
+        }
+        loadGenres(chunk, "where FILM_ID between ? and ?", first, last);
+        loadLikes(chunk, "where FILM_ID between ? and ?", first, last);
+        chunk.values().forEach(action);
+        chunk.clear();
+    }
+
+    private void loadGenres(Map<Long, Film> films, String condition, Object... args) {
+        String sqlQuery = "select distinct FILM_ID, GENRE_ID from FILM_GENRE " + condition +
+                " order by FILM_ID, GENRE_ID";
+        jdbcTemplate.query(sqlQuery, rs -> {
+            Film film = films.get(rs.getLong(1));
+            if (film != null) {
+                film.getGenres().add(genreStorage.getGenreById(rs.getInt(2)));
+            }
+        }, args);
+    }
+
+    private void loadLikes(Map<Long, Film> films, String condition, Object... args) {
+        String sqlQuery = "select FILM_ID, USER_ID from FILM_USER " + condition;
+        jdbcTemplate.query(sqlQuery, rs -> {
+            Film film = films.get(rs.getLong(1));
+            if (film != null) {
+                film.addLike(rs.getLong(2));
+            }
+        }, args);
     }
 }
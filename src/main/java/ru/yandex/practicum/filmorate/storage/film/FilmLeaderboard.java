@@ -0,0 +1,118 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.Value;
+
+import java.util.*;
+
+/*
+ * Рейтинг фильмов по количеству лайков, который обновляется при каждом лайке,
+ * поэтому чтение топа не обращается к хранилищу. Фильмы упорядочены по убыванию лайков,
+ * при равенстве - по возрастанию id. Рейтинг ведется общий, по каждому жанру, по каждому mpa
+ * и по каждой паре жанр + mpa, поэтому топ с любым набором фильтров читает ровно count записей.
+ */
+public class FilmLeaderboard {
+    private static final Comparator<Rank> BY_POPULARITY = Comparator.comparingInt(Rank::getLikes).reversed()
+            .thenComparingLong(Rank::getFilmId);
+
+    private final Map<Long, Rank> ranks = new HashMap<>();
+    private final NavigableSet<Rank> global = new TreeSet<>(BY_POPULARITY);
+    private final Map<Integer, NavigableSet<Rank>> byGenre = new HashMap<>();
+    private final Map<Integer, NavigableSet<Rank>> byMpa = new HashMap<>();
+    private final Map<Long, NavigableSet<Rank>> byGenreAndMpa = new HashMap<>();
+
+    public synchronized void putFilm(long filmId, Integer mpaId, Collection<Integer> genreIds) {
+        Rank old = ranks.get(filmId);
+        int likes = old == null ? 0 : old.getLikes();
+        unlink(old);
+        link(new Rank(filmId, likes, mpaId, genreIds == null ? Set.of() : new HashSet<>(genreIds)));
+    }
+
+    public synchronized void removeFilm(long filmId) {
+        unlink(ranks.get(filmId));
+    }
+
+    public synchronized void changeLikes(long filmId, int delta) {
+        Rank old = ranks.get(filmId);
+        if (old == null || delta == 0) {
+            return;
+        }
+        unlink(old);
+        link(new Rank(filmId, Math.max(0, old.getLikes() + delta), old.getMpaId(), old.getGenreIds()));
+    }
+
+    public synchronized List<Long> getTop(int count, Integer genreId, Integer mpaId) {
+        List<Long> ids = new ArrayList<>();
+        if (count <= 0) {
+            return ids;
+        }
+        NavigableSet<Rank> scope;
+        if (genreId != null && mpaId != null) {
+            scope = byGenreAndMpa.getOrDefault(key(genreId, mpaId), Collections.emptyNavigableSet());
+        } else if (genreId != null) {
+            scope = byGenre.getOrDefault(genreId, Collections.emptyNavigableSet());
+        } else if (mpaId != null) {
+            scope = byMpa.getOrDefault(mpaId, Collections.emptyNavigableSet());
+        } else {
+            scope = global;
+        }
+        for (Rank rank : scope) {
+            ids.add(rank.getFilmId());
+            if (ids.size() == count) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    public synchronized void clear() {
+        ranks.clear();
+        global.clear();
+        byGenre.clear();
+        byMpa.clear();
+        byGenreAndMpa.clear();
+    }
+
+    private void link(Rank rank) {
+        ranks.put(rank.getFilmId(), rank);
+        global.add(rank);
+        if (rank.getMpaId() != null) {
+            byMpa.computeIfAbsent(rank.getMpaId(), k -> new TreeSet<>(BY_POPULARITY)).add(rank);
+        }
+        for (Integer genreId : rank.getGenreIds()) {
+            byGenre.computeIfAbsent(genreId, k -> new TreeSet<>(BY_POPULARITY)).add(rank);
+            if (rank.getMpaId() != null) {
+                byGenreAndMpa.computeIfAbsent(key(genreId, rank.getMpaId()), k -> new TreeSet<>(BY_POPULARITY))
+                        .add(rank);
+            }
+        }
+    }
+
+    private void unlink(Rank rank) {
+        if (rank == null) {
+            return;
+        }
+        ranks.remove(rank.getFilmId());
+        global.remove(rank);
+        if (rank.getMpaId() != null) {
+            byMpa.get(rank.getMpaId()).remove(rank);
+        }
+        for (Integer genreId : rank.getGenreIds()) {
+            byGenre.get(genreId).remove(rank);
+            if (rank.getMpaId() != null) {
+                byGenreAndMpa.get(key(genreId, rank.getMpaId())).remove(rank);
+            }
+        }
+    }
+
+    private static long key(int genreId, int mpaId) {
+        return (long) genreId << 32 | mpaId & 0xFFFFFFFFL;
+    }
+
+    @Value
+    private static class Rank {
+        long filmId;
+        int likes;
+        Integer mpaId;
+        Set<Integer> genreIds;
+    }
+}
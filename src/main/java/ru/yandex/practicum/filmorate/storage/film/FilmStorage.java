@@ -2,22 +2,67 @@ package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     Film addFilm(Film film) throws ValidationException, DataExistException;
 
+    void addFilms(List<Film> films);
+
     Film updateFilm(Film film) throws DataExistException, ValidationException;
 
     void removeFilmById(long id) throws DataExistException;
 
     List<Film> getAllFilms();
 
+    List<Film> getFilms(long after, int limit);
+
+    void forEachFilm(Consumer<Film> action);
+
     Film getFilmById(long id) throws DataExistException;
 
+    List<Film> getFilmsByIds(List<Long> ids, FieldSet fields);
+
+    Set<Long> findExistingIds(Collection<Long> ids);
+
+    boolean exists(long id);
+
     void addLike(Long filmId, Long userId) throws DataExistException;
 
+    Integer getLikesCount(long filmId);
+
+    List<Long> getLikes(long filmId, long after, int limit);
+
+    void addLikes(List<FilmLike> likes);
+
     void removeLike(Long filmId, Long userId) throws DataExistException;
+
+    List<Film> getTopFilms(int count, Integer genreId, Integer mpaId);
+
+    /*
+     * Чтения с набором полей: хранилище может не загружать незапрошенные связи.
+     * По умолчанию набор полей не учитывается и фильм читается целиком.
+     */
+    default List<Film> getAllFilms(FieldSet fields) {
+        return getAllFilms();
+    }
+
+    default List<Film> getFilms(long after, int limit, FieldSet fields) {
+        return getFilms(after, limit);
+    }
+
+    default Film getFilmById(long id, FieldSet fields) throws DataExistException {
+        return getFilmById(id);
+    }
+
+    default List<Film> getTopFilms(int count, Integer genreId, Integer mpaId, FieldSet fields) {
+        return getTopFilms(count, genreId, mpaId);
+    }
 }
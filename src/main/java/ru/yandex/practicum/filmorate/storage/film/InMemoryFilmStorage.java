@@ -1,18 +1,62 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.LikeSet;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.StripedLocks;
+import ru.yandex.practicum.filmorate.storage.journal.Journal;
+import ru.yandex.practicum.filmorate.storage.journal.JournalFactory;
 
+import javax.annotation.PreDestroy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/*
+ * Хранилище рассчитано на параллельные запросы. Лайки и рейтинг фильма меняются под блокировкой
+ * его полосы в StripedLocks, а наружу отдаются копии фильмов, снятые под той же блокировкой.
+ * Если включен журнал, каждое изменение пишется в него под той же блокировкой, а ответ
+ * возвращается после того, как запись дошла до диска.
+ */
 @Component
 @Slf4j
 public class InMemoryFilmStorage implements FilmStorage {
-    private final Map<Long, Film> films = new HashMap<>();
-    private long id = 1;
+    private final NavigableMap<Long, Film> films = new ConcurrentSkipListMap<>();
+    private final FilmLeaderboard leaderboard = new FilmLeaderboard();
+    private final StripedLocks locks = new StripedLocks();
+    private final AtomicLong id = new AtomicLong(1);
+    private final Journal journal;
+
+    private static final byte FILM_PUT = 1;
+    private static final byte FILM_REMOVE = 2;
+    private static final byte LIKE_ADD = 3;
+    private static final byte LIKE_REMOVE = 4;
+
+    public InMemoryFilmStorage() {
+        journal = null;
+    }
+
+    @Autowired
+    public InMemoryFilmStorage(JournalFactory journals) {
+        journal = journals.create("films").orElse(null);
+        if (journal != null) {
+            journal.open(this::readSnapshot, this::replay);
+        }
+    }
 
     @Override
     public Film addFilm(Film film) throws ValidationException, DataExistException {
@@ -20,84 +64,504 @@ public class InMemoryFilmStorage implements FilmStorage {
             log.debug("Попытка создать дублирующий фильм");
             throw new DataExistException("Такой фильм уже есть.");
         } else {
-            film.setId(id);
-            film.setLikes(new TreeSet<>());
-            id++;
-            films.put(film.getId(), film);
+            awaitRecord(insert(film));
             log.debug("Фильм {} добавлен. Всего их: " + films.size(), film.getName());
             log.debug("Фильм: " + film);
 
         }
-        return films.get(film.getId());
+        return snapshot(film);
+    }
+
+    @Override
+    public void addFilms(List<Film> films) {
+        long number = 0;
+        for (Film film : films) {
+            number = insert(film);
+        }
+        awaitRecord(number);
+        log.debug("Добавлено фильмов: {}. Всего их: {}", films.size(), this.films.size());
     }
 
     @Override
     public Film updateFilm(Film film) throws DataExistException, ValidationException {
-        if (!films.containsKey(film.getId())) {
-            log.debug("Попытка обновить несуществующий фильм");
-            throw new DataExistException("Такой фильм не существует.");
-        } else {
-            film.setLikes(films.get(film.getId()).getLikes());
+        long number;
+        Film updated;
+        beginChange();
+        locks.lock(film.getId());
+        try {
+            Film old = films.get(film.getId());
+            if (old == null) {
+                log.debug("Попытка обновить несуществующий фильм");
+                throw new DataExistException("Такой фильм не существует.");
+            }
+            film.setLikes(old.getLikes());
+            number = record(out -> {
+                out.writeByte(FILM_PUT);
+                writeFilm(out, film);
+            });
             films.put(film.getId(), film);
-            log.debug("Фильм c ID {} обновлен", film.getId());
-            log.debug("Фильм " + film);
+            rank(film);
+            // у сохраненного фильма живые лайки, поэтому наружу - копия, снятая под блокировкой
+            updated = snapshot(film);
+        } finally {
+            locks.unlock(film.getId());
+            endChange();
         }
-        return films.get(film.getId());
+        awaitRecord(number);
+        log.debug("Фильм c ID {} обновлен", film.getId());
+        log.debug("Фильм " + updated);
+        return updated;
     }
 
     @Override
     public void removeFilmById(long id) throws DataExistException {
-        if (!films.containsKey(id)) {
-            log.debug("Попытка удалить фильм с несуществуеющим ID.");
-            throw new DataExistException("Фильма с ID " + id + " не существует.");
-        } else {
+        long number;
+        beginChange();
+        locks.lock(id);
+        try {
+            if (!films.containsKey(id)) {
+                log.debug("Попытка удалить фильм с несуществуеющим ID.");
+                throw new DataExistException("Фильма с ID " + id + " не существует.");
+            }
+            number = record(out -> {
+                out.writeByte(FILM_REMOVE);
+                out.writeLong(id);
+            });
             films.remove(id);
+            leaderboard.removeFilm(id);
+        } finally {
+            locks.unlock(id);
+            endChange();
         }
+        awaitRecord(number);
     }
 
     @Override
     public List<Film> getAllFilms() {
-        return new ArrayList<>(films.values());
+        return films.values().stream()
+                .map(this::snapshot)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Film> getAllFilms(FieldSet fields) {
+        return films.values().stream()
+                .map(film -> snapshot(film, fields))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachFilm(Consumer<Film> action) {
+        films.values().forEach(film -> action.accept(snapshot(film)));
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit) {
+        return films.tailMap(after, false).values().stream()
+                .limit(limit)
+                .map(this::snapshot)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit, FieldSet fields) {
+        return films.tailMap(after, false).values().stream()
+                .limit(limit)
+                .map(film -> snapshot(film, fields))
+                .collect(Collectors.toList());
     }
 
     @Override
     public Film getFilmById(long id) throws DataExistException {
-        if (!films.containsKey(id)) {
-            log.debug("Попытка получить фильм по несуществуемому ID.");
-            throw new DataExistException("Фильма с ID " + id + " не существует.");
-        }
-        return films.get(id);
+        return getFilmById(id, FieldSet.ALL);
+    }
+
+    @Override
+    public Film getFilmById(long id, FieldSet fields) throws DataExistException {
+        return snapshot(getStoredFilm(id), fields);
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(List<Long> ids, FieldSet fields) {
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .map(film -> snapshot(film, fields))
+                .collect(Collectors.toList());
     }
 
     @Override
     public void addLike(Long filmId, Long userId) throws DataExistException {
-        Film film = getFilmById(filmId);
-        if (film.getLikes() != null) {
+        int likesCount;
+        long number;
+        beginChange();
+        locks.lock(filmId);
+        try {
+            Film film = getStoredFilm(filmId);
             if (film.getLikes().contains(userId)) {
                 log.debug("Попытка поставить второй лайк пользователем c ID " + userId + " фильму " +
-                        "с ID " + film.getId() + ".");
+                        "с ID " + filmId + ".");
                 throw new DataExistException("Пользователь с ID: " + userId + " уже ставил лайк фильму с ID: "
-                        + film.getId());
+                        + filmId);
+            }
+            number = recordLike(LIKE_ADD, filmId, userId);
+            film.addLike(userId);
+            leaderboard.changeLikes(filmId, 1);
+            likesCount = film.getLikesCount();
+        } finally {
+            locks.unlock(filmId);
+            endChange();
+        }
+        awaitRecord(number);
+        log.debug("Пользователь с ID: " + userId + " поставил like фильму с ID: " + filmId
+                + ". Количество лайков: " + likesCount);
+    }
+
+    @Override
+    public Integer getLikesCount(long filmId) {
+        locks.lock(filmId);
+        try {
+            Film film = films.get(filmId);
+            return film == null ? null : film.getLikesCount();
+        } finally {
+            locks.unlock(filmId);
+        }
+    }
+
+    @Override
+    public List<Long> getLikes(long filmId, long after, int limit) {
+        long[] page;
+        locks.lock(filmId);
+        try {
+            Film film = films.get(filmId);
+            if (film == null) {
+                return null;
             }
+            page = film.getLikes().page(after, limit);
+        } finally {
+            locks.unlock(filmId);
         }
-        film.addLike(userId);
-        log.debug("Пользователь с ID: " + userId + " поставил like фильму с ID: " + film.getId()
-                + ". Количество лайков: " + film.getLikes().size());
+        return Arrays.stream(page).boxed().collect(Collectors.toList());
+    }
+
+    @Override
+    public void addLikes(List<FilmLike> likes) {
+        long number = 0;
+        for (FilmLike like : likes) {
+            beginChange();
+            locks.lock(like.getFilmId());
+            try {
+                Film film = films.get(like.getFilmId());
+                if (film != null && !film.getLikes().contains(like.getUserId())) {
+                    number = recordLike(LIKE_ADD, like.getFilmId(), like.getUserId());
+                    film.addLike(like.getUserId());
+                    leaderboard.changeLikes(like.getFilmId(), 1);
+                }
+            } finally {
+                locks.unlock(like.getFilmId());
+                endChange();
+            }
+        }
+        awaitRecord(number);
     }
 
     @Override
     public void removeLike(Long filmId, Long userId) throws DataExistException {
-        Film film = getFilmById(filmId);
-        if (film.getLikes() != null) {
+        int likesCount;
+        long number;
+        beginChange();
+        locks.lock(filmId);
+        try {
+            Film film = getStoredFilm(filmId);
             if (!film.getLikes().contains(userId)) {
                 log.debug("Попытка удалить лайк пользователем c ID " + userId + ", который еще не ставил лайк фильму " +
-                        "с ID " + film.getId() + ".");
+                        "с ID " + filmId + ".");
                 throw new DataExistException("Пользователь с ID: " + userId + " еще не ставил лайк фильму с ID: "
-                        + film.getId());
+                        + filmId);
             }
+            number = recordLike(LIKE_REMOVE, filmId, userId);
+            film.removeLike(userId);
+            leaderboard.changeLikes(filmId, -1);
+            likesCount = film.getLikesCount();
+        } finally {
+            locks.unlock(filmId);
+            endChange();
         }
-        film.removeLike(userId);
+        awaitRecord(number);
         log.debug("Пользователь с ID: " + userId + " убрал свой like фильму с ID: " + filmId
-                + ". Количество лайков: " + film.getLikes().size());
+                + ". Количество лайков: " + likesCount);
+    }
+
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId) {
+        return getTopFilms(count, genreId, mpaId, FieldSet.ALL);
+    }
+
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId, FieldSet fields) {
+        return leaderboard.getTop(count, genreId, mpaId).stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .map(film -> snapshot(film, fields))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(films::containsKey)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean exists(long id) {
+        return films.containsKey(id);
+    }
+
+    private Film getStoredFilm(long id) throws DataExistException {
+        Film film = films.get(id);
+        if (film == null) {
+            log.debug("Попытка получить фильм по несуществуемому ID.");
+            throw new DataExistException("Фильма с ID " + id + " не существует.");
+        }
+        return film;
+    }
+
+    private Film snapshot(Film film) {
+        return snapshot(film, FieldSet.ALL);
+    }
+
+    // лайки и жанры копируются, только если запрошены; число лайков отдается и без них
+    private Film snapshot(Film film, FieldSet fields) {
+        locks.lock(film.getId());
+        try {
+            Film copy = film.toBuilder()
+                    .likes(fields.has(Film.LIKES) ? new LikeSet(film.getLikes()) : null)
+                    .genres(fields.has(Film.GENRES) && film.getGenres() != null
+                            ? new ArrayList<>(film.getGenres()) : null)
+                    .build();
+            if (!fields.has(Film.LIKES)) {
+                copy.setLikesCount(film.getLikesCount());
+            }
+            return copy;
+        } finally {
+            locks.unlock(film.getId());
+        }
+    }
+
+    private long insert(Film film) {
+        film.setId(id.getAndIncrement());
+        film.setLikes(new LikeSet());
+        beginChange();
+        locks.lock(film.getId());
+        try {
+            long number = record(out -> {
+                out.writeByte(FILM_PUT);
+                writeFilm(out, film);
+            });
+            films.put(film.getId(), film);
+            rank(film);
+            return number;
+        } finally {
+            locks.unlock(film.getId());
+            endChange();
+        }
+    }
+
+    private void rank(Film film) {
+        List<Integer> genreIds = film.getGenres() == null ? List.of() : film.getGenres().stream()
+                .map(Genre::getId)
+                .collect(Collectors.toList());
+        leaderboard.putFilm(film.getId(), film.getMpa() == null ? null : film.getMpa().getId(), genreIds);
+    }
+
+    /*
+     * Кладет фильм с уже назначенным id вместе с его лайками, например при загрузке
+     * из другого хранилища. Фильм с тем же id заменяется целиком.
+     */
+    public void load(Film film) {
+        Film copy = film.toBuilder()
+                .likes(film.getLikes() == null ? new LikeSet() : new LikeSet(film.getLikes()))
+                .genres(film.getGenres() == null ? null : new ArrayList<>(film.getGenres()))
+                .build();
+        long number;
+        beginChange();
+        locks.lock(copy.getId());
+        try {
+            record(out -> {
+                out.writeByte(FILM_REMOVE);
+                out.writeLong(copy.getId());
+            });
+            number = record(out -> {
+                out.writeByte(FILM_PUT);
+                writeFilm(out, copy);
+            });
+            for (long userId : copy.getLikes().toLongArray()) {
+                number = recordLike(LIKE_ADD, copy.getId(), userId);
+            }
+            films.put(copy.getId(), copy);
+            leaderboard.removeFilm(copy.getId());
+            rank(copy);
+            leaderboard.changeLikes(copy.getId(), copy.getLikesCount());
+            id.accumulateAndGet(copy.getId() + 1, Math::max);
+        } finally {
+            locks.unlock(copy.getId());
+            endChange();
+        }
+        awaitRecord(number);
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.memory.journal.snapshot-interval-ms:600000}",
+            initialDelayString = "${filmorate.memory.journal.snapshot-interval-ms:600000}")
+    public void snapshot() {
+        if (journal == null) {
+            return;
+        }
+        journal.snapshot(out -> {
+            out.writeLong(id.get());
+            for (Film stored : films.values()) {
+                Film film = snapshot(stored);
+                out.writeBoolean(true);
+                writeFilm(out, film);
+                out.writeInt(film.getLikesCount());
+                for (long userId : film.getLikes().toLongArray()) {
+                    out.writeLong(userId);
+                }
+            }
+            out.writeBoolean(false);
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private long record(Journal.Writer record) {
+        return journal == null ? 0 : journal.append(record);
+    }
+
+    private long recordLike(byte type, long filmId, long userId) {
+        return record(out -> {
+            out.writeByte(type);
+            out.writeLong(filmId);
+            out.writeLong(userId);
+        });
+    }
+
+    // см. Journal.changeLock(): берется до блокировок сущностей
+    private void beginChange() {
+        if (journal != null) {
+            journal.changeLock().lock();
+        }
+    }
+
+    private void endChange() {
+        if (journal != null) {
+            journal.changeLock().unlock();
+        }
+    }
+
+    private void awaitRecord(long number) {
+        if (journal != null && number > 0) {
+            journal.await(number);
+        }
+    }
+
+    private void readSnapshot(DataInput in) throws IOException {
+        id.set(in.readLong());
+        while (in.readBoolean()) {
+            Film film = readFilm(in);
+            LikeSet likes = new LikeSet();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                likes.add(in.readLong());
+            }
+            film.setLikes(likes);
+            films.put(film.getId(), film);
+            rank(film);
+            leaderboard.changeLikes(film.getId(), count);
+        }
+    }
+
+    // записи проигрываются поверх снимка, который мог уже их учесть, поэтому каждая идемпотентна
+    private void replay(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case FILM_PUT: {
+                Film film = readFilm(in);
+                Film old = films.get(film.getId());
+                film.setLikes(old == null ? new LikeSet() : old.getLikes());
+                films.put(film.getId(), film);
+                rank(film);
+                id.accumulateAndGet(film.getId() + 1, Math::max);
+                break;
+            }
+            case FILM_REMOVE: {
+                long filmId = in.readLong();
+                films.remove(filmId);
+                leaderboard.removeFilm(filmId);
+                break;
+            }
+            case LIKE_ADD:
+            case LIKE_REMOVE: {
+                long filmId = in.readLong();
+                long userId = in.readLong();
+                Film film = films.get(filmId);
+                if (film == null) {
+                    break;
+                }
+                if (type == LIKE_ADD ? film.getLikes().add(userId) : film.getLikes().remove(userId)) {
+                    leaderboard.changeLikes(filmId, type == LIKE_ADD ? 1 : -1);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Неизвестный тип записи журнала фильмов: " + type);
+        }
+    }
+
+    private static void writeFilm(DataOutput out, Film film) throws IOException {
+        out.writeLong(film.getId());
+        Journal.writeString(out, film.getName());
+        Journal.writeString(out, film.getDescription());
+        Journal.writeDate(out, film.getReleaseDate());
+        out.writeInt(film.getDuration());
+        out.writeBoolean(film.getMpa() != null);
+        if (film.getMpa() != null) {
+            out.writeInt(film.getMpa().getId());
+            Journal.writeString(out, film.getMpa().getName());
+        }
+        out.writeInt(film.getGenres() == null ? -1 : film.getGenres().size());
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                out.writeInt(genre.getId());
+                Journal.writeString(out, genre.getName());
+            }
+        }
+    }
+
+    private static Film readFilm(DataInput in) throws IOException {
+        Film film = Film.builder()
+                .id(in.readLong())
+                .name(Journal.readString(in))
+                .description(Journal.readString(in))
+                .releaseDate(Journal.readDate(in))
+                .duration(in.readInt())
+                .build();
+        if (in.readBoolean()) {
+            film.setMpa(Mpa.builder().id(in.readInt()).name(Journal.readString(in)).build());
+        }
+        int genres = in.readInt();
+        if (genres >= 0) {
+            List<Genre> list = new ArrayList<>(genres);
+            for (int i = 0; i < genres; i++) {
+                list.add(Genre.builder().id(in.readInt()).name(Journal.readString(in)).build());
+            }
+            film.setGenres(list);
+        }
+        return film;
     }
 }
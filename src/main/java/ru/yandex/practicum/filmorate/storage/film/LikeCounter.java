@@ -0,0 +1,102 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Счетчики лайков в колонке LIKES_COUNT. Изменения копятся в LongAdder по фильму и переносятся
+ * в базу одним пакетом раз в flush-interval-ms и при остановке. Сверка с FILM_USER исправляет
+ * расхождения, например после аварийной остановки.
+ * Дельта вычитается только после того, как UPDATE прошел: до этого чтение LIKES_COUNT + pending
+ * может ненадолго учесть ее дважды, но не теряет ее.
+ */
+@Component
+@Slf4j
+public class LikeCounter {
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentMap<Long, LongAdder> deltas = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+
+    public LikeCounter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void add(long filmId, long delta) {
+        deltas.computeIfAbsent(filmId, k -> new LongAdder()).add(delta);
+    }
+
+    public long getPending(long filmId) {
+        LongAdder delta = deltas.get(filmId);
+        return delta == null ? 0 : delta.sum();
+    }
+
+    /*
+     * Запись лайков держит эту блокировку от изменения FILM_USER до add() (в транзакции - до ее
+     * завершения), а сверка берет ее на запись. Поэтому сверка не видит в FILM_USER лайк,
+     * дельта которого еще не учтена.
+     */
+    public Lock changeLock() {
+        return changes.readLock();
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${filmorate.likes.counter.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        List<Object[]> updates = new ArrayList<>();
+        for (Map.Entry<Long, LongAdder> entry : deltas.entrySet()) {
+            long delta = entry.getValue().sum();
+            if (delta != 0) {
+                updates.add(new Object[]{delta, entry.getKey()});
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate("update FILM_TABLE set LIKES_COUNT = LIKES_COUNT + ? where FILM_ID = ?",
+                    updates);
+        } catch (RuntimeException e) {
+            log.error("Не удалось сохранить счетчики лайков для {} фильмов", updates.size(), e);
+            return;
+        }
+        updates.forEach(update -> deltas.get((Long) update[1]).add(-(Long) update[0]));
+        log.debug("Счетчики лайков сохранены для {} фильмов", updates.size());
+    }
+
+    // несохраненные дельты остаются в памяти, поэтому в базу пишется count(*) за их вычетом
+    @Scheduled(cron = "${filmorate.likes.counter.reconcile-cron:0 0 4 * * *}")
+    public synchronized void reconcile() {
+        changes.writeLock().lock();
+        try {
+            String sqlQuery = "select F.FILM_ID, F.LIKES_COUNT, " +
+                    "(select count(*) from FILM_USER U where U.FILM_ID = F.FILM_ID) from FILM_TABLE F";
+            List<Object[]> fixes = new ArrayList<>();
+            jdbcTemplate.query(sqlQuery, (RowCallbackHandler) rs -> {
+                long filmId = rs.getLong(1);
+                long expected = rs.getLong(3) - getPending(filmId);
+                if (rs.getLong(2) != expected) {
+                    fixes.add(new Object[]{expected, filmId});
+                }
+            });
+            if (!fixes.isEmpty()) {
+                jdbcTemplate.batchUpdate("update FILM_TABLE set LIKES_COUNT = ? where FILM_ID = ?", fixes);
+            }
+            log.info("Сверка счетчиков лайков завершена, исправлено фильмов: {}", fixes.size());
+        } finally {
+            changes.writeLock().unlock();
+        }
+    }
+}
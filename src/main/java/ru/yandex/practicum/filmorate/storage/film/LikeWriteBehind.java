@@ -0,0 +1,187 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+ * Отложенная запись лайков. Для каждой пары фильм-пользователь хранится только последнее состояние,
+ * поэтому лайк и последующая отмена схлопываются в одну запись. Накопленное пишется пачкой раз
+ * в flushIntervalMs, это и есть окно, в котором лайк еще не сохранен в базе.
+ * Если очередь заполнена, вызывающий ждет до maxWaitMs, после чего offer возвращает false
+ * и лайк нужно записать сразу.
+ * Если пачка не записалась, ее изменения пишутся по одному: так одно плохое изменение не держит
+ * остальные. Изменение, которое база отвергает окончательно (например, нарушение внешнего ключа)
+ * или которое не записалось maxAttempts раз, отбрасывается с ошибкой в логе.
+ */
+@Component
+@Slf4j
+public class LikeWriteBehind {
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int capacity;
+    private final long flushIntervalMs;
+    private final long maxWaitMs;
+    private final int maxAttempts;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private Map<FilmLike, Boolean> pending = new LinkedHashMap<>();
+    private final Map<FilmLike, Integer> attempts = new HashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+    private Consumer<Map<FilmLike, Boolean>> writer;
+
+    public LikeWriteBehind(PlatformTransactionManager transactionManager,
+                           @Value("${filmorate.likes.write-behind.enabled:false}") boolean enabled,
+                           @Value("${filmorate.likes.write-behind.capacity:100000}") int capacity,
+                           @Value("${filmorate.likes.write-behind.flush-interval-ms:100}") long flushIntervalMs,
+                           @Value("${filmorate.likes.write-behind.max-wait-ms:50}") long maxWaitMs,
+                           @Value("${filmorate.likes.write-behind.max-attempts:5}") int maxAttempts) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxWaitMs = maxWaitMs;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void start(Consumer<Map<FilmLike, Boolean>> writer) {
+        if (!enabled || scheduler != null) {
+            return;
+        }
+        this.writer = writer;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "like-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Отложенная запись лайков включена, окно {} мс, емкость {}", flushIntervalMs, capacity);
+    }
+
+    public boolean offer(long filmId, long userId, boolean liked) {
+        ScheduledExecutorService running = scheduler;
+        if (running == null) {
+            return false;
+        }
+        FilmLike like = FilmLike.builder().filmId(filmId).userId(userId).build();
+        lock.lock();
+        try {
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            while (pending.size() >= capacity && !pending.containsKey(like)) {
+                if (waitNanos <= 0) {
+                    log.debug("Очередь лайков заполнена, лайк пользователя {} фильму {} пишется сразу", userId, filmId);
+                    return false;
+                }
+                running.execute(this::flush);
+                waitNanos = notFull.awaitNanos(waitNanos);
+            }
+            pending.put(like, liked);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() {
+        Map<FilmLike, Boolean> batch;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (batch.size() > 1) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> writer.accept(batch));
+                log.debug("Записано изменений лайков: {}", batch.size());
+                forget(batch);
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Не удалось записать пачку из {} изменений лайков, пишем по одному", batch.size(), e);
+            }
+        }
+        batch.forEach(this::writeOne);
+    }
+
+    private void writeOne(FilmLike like, Boolean liked) {
+        Map<FilmLike, Boolean> change = Map.of(like, liked);
+        try {
+            transactionTemplate.executeWithoutResult(status -> writer.accept(change));
+            forget(change);
+        } catch (NonTransientDataAccessException e) {
+            log.error("Изменение лайка пользователя {} фильму {} отвергнуто базой и отброшено",
+                    like.getUserId(), like.getFilmId(), e);
+            forget(change);
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                int attempt = attempts.merge(like, 1, Integer::sum);
+                if (pending.containsKey(like)) {
+                    // пока шла запись, пришло более новое состояние лайка - повторять старое незачем
+                    attempts.remove(like);
+                } else if (attempt >= maxAttempts) {
+                    attempts.remove(like);
+                    log.error("Изменение лайка пользователя {} фильму {} не записано за {} попыток и отброшено",
+                            like.getUserId(), like.getFilmId(), attempt, e);
+                } else {
+                    log.warn("Не удалось записать изменение лайка пользователя {} фильму {}, попытка {}",
+                            like.getUserId(), like.getFilmId(), attempt, e);
+                    pending.put(like, liked);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void forget(Map<FilmLike, Boolean> written) {
+        lock.lock();
+        try {
+            if (!attempts.isEmpty()) {
+                attempts.keySet().removeAll(written.keySet());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws InterruptedException {
+        ScheduledExecutorService running = scheduler;
+        if (running == null) {
+            return;
+        }
+        scheduler = null;
+        running.shutdown();
+        running.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+}
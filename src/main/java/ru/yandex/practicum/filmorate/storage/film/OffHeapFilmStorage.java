@@ -0,0 +1,464 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.PeekableLongIterator;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.storage.StripedLocks;
+import ru.yandex.practicum.filmorate.storage.offheap.MappedRegion;
+import ru.yandex.practicum.filmorate.storage.offheap.MappedStrings;
+
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*
+ * Хранилище фильмов вне кучи. Фильм - запись фиксированной длины в отображенном файле по адресу
+ * id * RECORD_SIZE, строки и жанры лежат в отдельной куче строк. Лайки хранятся в сжатых битовых
+ * картах с ключом (id фильма << 32 | id пользователя). Объекты Film собираются только на выходе
+ * из хранилища, поэтому размер кучи и паузы сборщика не зависят от числа фильмов.
+ */
+@Component
+@Slf4j
+public class OffHeapFilmStorage implements FilmStorage {
+    private static final int RECORD_SIZE = 64;
+    private static final int NAME = 8;
+    private static final int DESCRIPTION = 16;
+    private static final int RELEASE_DATE = 24;
+    private static final int DURATION = 32;
+    private static final int MPA_ID = 36;
+    private static final int MPA_NAME = 40;
+    private static final int GENRES = 48;
+    private static final int LIKES_COUNT = 56;
+    private static final int FLAGS = 60;
+    private static final int LIVE = 1;
+    private static final int NO_MPA = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int LIKE_SHARDS = 64;
+    private static final long MAX_ID = 0xFFFFFFFFL;
+
+    private final MappedRegion records;
+    private final MappedStrings strings;
+    private final Roaring64Bitmap[] likes = new Roaring64Bitmap[LIKE_SHARDS];
+    private final StripedLocks locks = new StripedLocks();
+    private final AtomicLong id = new AtomicLong(1);
+
+    public OffHeapFilmStorage(@Value("${filmorate.offheap.dir:./db/offheap}") String directory) {
+        Path dir = Path.of(directory);
+        records = new MappedRegion(dir.resolve("films.records"));
+        strings = new MappedStrings(new MappedRegion(dir.resolve("films.strings")));
+        for (int i = 0; i < LIKE_SHARDS; i++) {
+            likes[i] = new Roaring64Bitmap();
+        }
+    }
+
+    @Override
+    public Film addFilm(Film film) throws ValidationException, DataExistException {
+        if (isLive(film.getId())) {
+            log.debug("Попытка создать дублирующий фильм");
+            throw new DataExistException("Такой фильм уже есть.");
+        }
+        insert(film);
+        log.debug("Фильм {} добавлен с ID {}", film.getName(), film.getId());
+        return film;
+    }
+
+    @Override
+    public void addFilms(List<Film> films) {
+        films.forEach(this::insert);
+        log.debug("Добавлено фильмов: {}", films.size());
+    }
+
+    @Override
+    public Film updateFilm(Film film) throws DataExistException, ValidationException {
+        locks.lock(film.getId());
+        try {
+            if (!isLive(film.getId())) {
+                log.debug("Попытка обновить несуществующий фильм");
+                throw new DataExistException("Такой фильм не существует.");
+            }
+            writeRecord(film, records.getInt(film.getId() * RECORD_SIZE + LIKES_COUNT));
+            film.setLikes(likesOf(film.getId()));
+        } finally {
+            locks.unlock(film.getId());
+        }
+        log.debug("Фильм c ID {} обновлен", film.getId());
+        return film;
+    }
+
+    @Override
+    public void removeFilmById(long id) throws DataExistException {
+        locks.lock(id);
+        try {
+            if (!isLive(id)) {
+                log.debug("Попытка удалить фильм с несуществуеющим ID.");
+                throw new DataExistException("Фильма с ID " + id + " не существует.");
+            }
+            records.putInt(id * RECORD_SIZE + FLAGS, 0);
+            Roaring64Bitmap shard = shard(id);
+            synchronized (shard) {
+                for (long userId : likesOf(id).toLongArray()) {
+                    shard.removeLong(id << 32 | userId);
+                }
+            }
+        } finally {
+            locks.unlock(id);
+        }
+    }
+
+    @Override
+    public List<Film> getAllFilms() {
+        List<Film> films = new ArrayList<>();
+        forEachFilm(films::add);
+        return films;
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit) {
+        List<Film> films = new ArrayList<>();
+        long last = id.get();
+        for (long filmId = Math.max(after + 1, 1); filmId < last && films.size() < limit; filmId++) {
+            Film film = readFilm(filmId);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        return films;
+    }
+
+    @Override
+    public void forEachFilm(Consumer<Film> action) {
+        long last = id.get();
+        for (long filmId = 1; filmId < last; filmId++) {
+            Film film = readFilm(filmId);
+            if (film != null) {
+                action.accept(film);
+            }
+        }
+    }
+
+    @Override
+    public Film getFilmById(long id) throws DataExistException {
+        Film film = readFilm(id);
+        if (film == null) {
+            log.debug("Попытка получить фильм по несуществуемому ID.");
+            throw new DataExistException("Фильма с ID " + id + " не существует.");
+        }
+        return film;
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(List<Long> ids, FieldSet fields) {
+        return ids.stream()
+                .map(this::readFilm)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(this::isLive)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean exists(long id) {
+        return isLive(id);
+    }
+
+    @Override
+    public void addLike(Long filmId, Long userId) throws DataExistException {
+        checkUserId(userId);
+        locks.lock(filmId);
+        try {
+            if (!isLive(filmId)) {
+                log.debug("Попытка поставить лайк несуществующему фильму.");
+                throw new DataExistException("Фильма с ID " + filmId + " не существует.");
+            }
+            if (!changeLike(filmId, userId, true)) {
+                log.debug("Попытка поставить второй лайк пользователем c ID " + userId + " фильму " +
+                        "с ID " + filmId + ".");
+                throw new DataExistException("Пользователь с ID: " + userId + " уже ставил лайк фильму с ID: "
+                        + filmId);
+            }
+        } finally {
+            locks.unlock(filmId);
+        }
+        log.debug("Пользователь с ID: " + userId + " поставил like фильму с ID: " + filmId);
+    }
+
+    @Override
+    public Integer getLikesCount(long filmId) {
+        locks.lock(filmId);
+        try {
+            return isLive(filmId) ? records.getInt(filmId * RECORD_SIZE + LIKES_COUNT) : null;
+        } finally {
+            locks.unlock(filmId);
+        }
+    }
+
+    @Override
+    public List<Long> getLikes(long filmId, long after, int limit) {
+        if (!isLive(filmId)) {
+            return null;
+        }
+        List<Long> page = new ArrayList<>();
+        long from = Math.max(after, 0) + 1;
+        if (from > MAX_ID) {
+            return page;
+        }
+        Roaring64Bitmap shard = shard(filmId);
+        synchronized (shard) {
+            PeekableLongIterator iterator = shard.getLongIteratorFrom(filmId << 32 | from);
+            while (page.size() < limit && iterator.hasNext()) {
+                long key = iterator.next();
+                if (key >>> 32 != filmId) {
+                    break;
+                }
+                page.add(key & MAX_ID);
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public void addLikes(List<FilmLike> likes) {
+        for (FilmLike like : likes) {
+            checkUserId(like.getUserId());
+            locks.lock(like.getFilmId());
+            try {
+                if (isLive(like.getFilmId())) {
+                    changeLike(like.getFilmId(), like.getUserId(), true);
+                }
+            } finally {
+                locks.unlock(like.getFilmId());
+            }
+        }
+    }
+
+    @Override
+    public void removeLike(Long filmId, Long userId) throws DataExistException {
+        locks.lock(filmId);
+        try {
+            if (!isLive(filmId)) {
+                log.debug("Попытка удалить лайк у несуществующего фильма.");
+                throw new DataExistException("Фильма с ID " + filmId + " не существует.");
+            }
+            if (userId < 0 || userId > MAX_ID || !changeLike(filmId, userId, false)) {
+                log.debug("Попытка удалить лайк пользователем c ID " + userId + ", который еще не ставил лайк фильму " +
+                        "с ID " + filmId + ".");
+                throw new DataExistException("Пользователь с ID: " + userId + " еще не ставил лайк фильму с ID: "
+                        + filmId);
+            }
+        } finally {
+            locks.unlock(filmId);
+        }
+        log.debug("Пользователь с ID: " + userId + " убрал свой like фильму с ID: " + filmId);
+    }
+
+    /*
+     * Топ считается проходом по записям фильмов без создания объектов: в очереди держится
+     * не больше count кандидатов, объекты собираются только для них.
+     * Каждый вызов проходит все записи, то есть O(N) по числу фильмов. FilmLeaderboard здесь
+     * не ведется намеренно: он держит объект на каждый фильм в куче, а это хранилище нужно как раз
+     * для того, чтобы куча не росла с числом фильмов. Для частых запросов топа подходят хранилища
+     * с рейтингом - в памяти и в базе.
+     */
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId) {
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<long[]> worstFirst = Comparator.<long[]>comparingLong(c -> c[1])
+                .thenComparing(Comparator.<long[]>comparingLong(c -> c[0]).reversed());
+        PriorityQueue<long[]> top = new PriorityQueue<>(count + 1, worstFirst);
+        long last = id.get();
+        for (long filmId = 1; filmId < last; filmId++) {
+            long at = filmId * RECORD_SIZE;
+            if (!records.contains(at) || records.getInt(at + FLAGS) != LIVE) {
+                continue;
+            }
+            if (mpaId != null && records.getInt(at + MPA_ID) != mpaId) {
+                continue;
+            }
+            if (genreId != null && !hasGenre(records.getLong(at + GENRES), genreId)) {
+                continue;
+            }
+            long likesCount = records.getInt(at + LIKES_COUNT);
+            if (top.size() == count) {
+                long[] worst = top.peek();
+                if (worst[1] > likesCount || worst[1] == likesCount) {
+                    continue;
+                }
+                top.poll();
+            }
+            top.add(new long[]{filmId, likesCount});
+        }
+        List<long[]> ranked = new ArrayList<>(top);
+        ranked.sort(worstFirst.reversed());
+        return ranked.stream()
+                .map(candidate -> readFilm(candidate[0]))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @PreDestroy
+    public void close() {
+        records.close();
+        strings.close();
+    }
+
+    private void insert(Film film) {
+        film.setId(id.getAndIncrement());
+        locks.lock(film.getId());
+        try {
+            writeRecord(film, 0);
+        } finally {
+            locks.unlock(film.getId());
+        }
+        film.setLikes(new LikeSet());
+    }
+
+    private void writeRecord(Film film, int likesCount) {
+        long at = film.getId() * RECORD_SIZE;
+        records.ensure(at + RECORD_SIZE);
+        records.putLong(at, film.getId());
+        records.putLong(at + NAME, strings.write(film.getName()));
+        records.putLong(at + DESCRIPTION, strings.write(film.getDescription()));
+        records.putLong(at + RELEASE_DATE, film.getReleaseDate() == null ? NO_DATE
+                : film.getReleaseDate().toEpochDay());
+        records.putInt(at + DURATION, film.getDuration());
+        records.putInt(at + MPA_ID, film.getMpa() == null ? NO_MPA : film.getMpa().getId());
+        records.putLong(at + MPA_NAME, film.getMpa() == null ? MappedStrings.NULL
+                : strings.write(film.getMpa().getName()));
+        records.putLong(at + GENRES, writeGenres(film.getGenres()));
+        records.putInt(at + LIKES_COUNT, likesCount);
+        records.putInt(at + FLAGS, LIVE);
+    }
+
+    private Film readFilm(long filmId) {
+        locks.lock(filmId);
+        try {
+            if (!isLive(filmId)) {
+                return null;
+            }
+            long at = filmId * RECORD_SIZE;
+            long releaseDate = records.getLong(at + RELEASE_DATE);
+            int mpaId = records.getInt(at + MPA_ID);
+            return Film.builder()
+                    .id(filmId)
+                    .name(strings.read(records.getLong(at + NAME)))
+                    .description(strings.read(records.getLong(at + DESCRIPTION)))
+                    .releaseDate(releaseDate == NO_DATE ? null : LocalDate.ofEpochDay(releaseDate))
+                    .duration(records.getInt(at + DURATION))
+                    .mpa(mpaId == NO_MPA ? null : Mpa.builder()
+                            .id(mpaId)
+                            .name(strings.read(records.getLong(at + MPA_NAME)))
+                            .build())
+                    .genres(readGenres(records.getLong(at + GENRES)))
+                    .likes(likesOf(filmId))
+                    .build();
+        } finally {
+            locks.unlock(filmId);
+        }
+    }
+
+    // жанры хранятся одной записью в куче строк: [id жанра][ссылка на название] подряд
+    private long writeGenres(List<Genre> genres) {
+        if (genres == null) {
+            return MappedStrings.NULL;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(genres.size() * (Integer.BYTES + Long.BYTES));
+        for (Genre genre : genres) {
+            buffer.putInt(genre.getId()).putLong(strings.write(genre.getName()));
+        }
+        return strings.write(buffer.array());
+    }
+
+    private List<Genre> readGenres(long reference) {
+        if (reference == MappedStrings.NULL) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(strings.readBytes(reference));
+        List<Genre> genres = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            int genreId = buffer.getInt();
+            genres.add(Genre.builder().id(genreId).name(strings.read(buffer.getLong())).build());
+        }
+        return genres;
+    }
+
+    private boolean hasGenre(long reference, int genreId) {
+        if (reference == MappedStrings.NULL) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(strings.readBytes(reference));
+        while (buffer.hasRemaining()) {
+            if (buffer.getInt() == genreId) {
+                return true;
+            }
+            buffer.getLong();
+        }
+        return false;
+    }
+
+    // вызывается под блокировкой фильма
+    private boolean changeLike(long filmId, long userId, boolean add) {
+        Roaring64Bitmap shard = shard(filmId);
+        long key = filmId << 32 | userId;
+        synchronized (shard) {
+            if (shard.contains(key) == add) {
+                return false;
+            }
+            if (add) {
+                shard.addLong(key);
+            } else {
+                shard.removeLong(key);
+            }
+        }
+        long at = filmId * RECORD_SIZE + LIKES_COUNT;
+        records.putInt(at, records.getInt(at) + (add ? 1 : -1));
+        return true;
+    }
+
+    private LikeSet likesOf(long filmId) {
+        LikeSet result = new LikeSet();
+        Roaring64Bitmap shard = shard(filmId);
+        synchronized (shard) {
+            PeekableLongIterator iterator = shard.getLongIteratorFrom(filmId << 32);
+            while (iterator.hasNext()) {
+                long key = iterator.next();
+                if (key >>> 32 != filmId) {
+                    break;
+                }
+                result.add(key & MAX_ID);
+            }
+        }
+        return result;
+    }
+
+    private Roaring64Bitmap shard(long filmId) {
+        return likes[(int) (filmId & (LIKE_SHARDS - 1))];
+    }
+
+    private boolean isLive(long filmId) {
+        long at = filmId * RECORD_SIZE;
+        return filmId > 0 && filmId < id.get() && records.contains(at) && records.getInt(at + FLAGS) == LIVE;
+    }
+
+    private void checkUserId(long userId) {
+        if (userId < 0 || userId > MAX_ID) {
+            throw new ValidationException("ID пользователя " + userId + " вне допустимого диапазона.");
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FieldSet;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.storage.StripedVersions;
+import ru.yandex.practicum.filmorate.storage.Transactions;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*
+ * Хранилище фильмов из двух уровней: InMemoryFilmStorage в памяти и FilmDbStorage в базе.
+ * Запись идет сначала в базу, а в память попадает после коммита, поэтому откаченные изменения
+ * в память не попадают. При старте память прогревается из базы, после этого чтения обслуживаются
+ * из памяти, а промахи по id догружаются из базы. Если уровень в памяти выключен,
+ * все запросы идут в базу.
+ * Изменения применяются в памяти, а промахи догружаются через StripedVersions, поэтому догрузка,
+ * прочитавшая базу до изменения, не возвращает в память удаленный или старый фильм.
+ */
+@Component
+@Slf4j
+public class TieredFilmStorage implements FilmStorage {
+    private final FilmDbStorage db;
+    private final InMemoryFilmStorage memory = new InMemoryFilmStorage();
+    private final StripedVersions versions = new StripedVersions();
+    private final boolean enabled;
+    private volatile boolean warm;
+
+    public TieredFilmStorage(FilmDbStorage db, @Value("${filmorate.storage.tiered.enabled:false}") boolean enabled) {
+        this.db = db;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int[] count = new int[1];
+        db.forEachFilm(film -> {
+            memory.load(film);
+            count[0]++;
+        });
+        warm = true;
+        log.info("Фильмы загружены в память: {} за {} мс", count[0], System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public Film addFilm(Film film) throws ValidationException, DataExistException {
+        Film added = db.addFilm(film);
+        afterCommit(() -> versions.change(added.getId(), () -> memory.load(added)));
+        return added;
+    }
+
+    @Override
+    public void addFilms(List<Film> films) {
+        db.addFilms(films);
+        afterCommit(() -> films.forEach(film -> versions.change(film.getId(), () -> memory.load(film))));
+    }
+
+    @Override
+    public Film updateFilm(Film film) throws DataExistException, ValidationException {
+        Film updated = db.updateFilm(film);
+        afterCommit(() -> versions.change(updated.getId(), () -> {
+            try {
+                memory.updateFilm(updated.toBuilder()
+                        .genres(updated.getGenres() == null ? null : new ArrayList<>(updated.getGenres()))
+                        .build());
+            } catch (DataExistException e) {
+                log.debug("Фильма с ID {} не было в памяти, он догрузится при чтении", updated.getId());
+            }
+        }));
+        return updated;
+    }
+
+    @Override
+    public void removeFilmById(long id) throws DataExistException {
+        db.removeFilmById(id);
+        afterCommit(() -> versions.change(id, () -> {
+            try {
+                memory.removeFilmById(id);
+            } catch (DataExistException e) {
+                log.debug("Фильма с ID {} не было в памяти", id);
+            }
+        }));
+    }
+
+    @Override
+    public List<Film> getAllFilms() {
+        return warm ? memory.getAllFilms() : db.getAllFilms();
+    }
+
+    @Override
+    public List<Film> getAllFilms(FieldSet fields) {
+        return warm ? memory.getAllFilms(fields) : db.getAllFilms(fields);
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit) {
+        return warm ? memory.getFilms(after, limit) : db.getFilms(after, limit);
+    }
+
+    @Override
+    public List<Film> getFilms(long after, int limit, FieldSet fields) {
+        return warm ? memory.getFilms(after, limit, fields) : db.getFilms(after, limit, fields);
+    }
+
+    @Override
+    public void forEachFilm(Consumer<Film> action) {
+        if (warm) {
+            memory.forEachFilm(action);
+        } else {
+            db.forEachFilm(action);
+        }
+    }
+
+    @Override
+    public Film getFilmById(long id) {
+        if (warm) {
+            try {
+                return memory.getFilmById(id);
+            } catch (DataExistException e) {
+                log.debug("Фильма с ID {} нет в памяти, читаем из базы", id);
+            }
+        }
+        return reload(id);
+    }
+
+    // промахи читаются из базы одним запросом и догружаются в память
+    @Override
+    public List<Film> getFilmsByIds(List<Long> ids, FieldSet fields) {
+        if (!warm) {
+            return db.getFilmsByIds(ids, fields);
+        }
+        Map<Long, Film> found = new HashMap<>();
+        memory.getFilmsByIds(ids, fields).forEach(film -> found.put(film.getId(), film));
+        List<Long> missed = ids.stream()
+                .filter(id -> !found.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList());
+        if (!missed.isEmpty()) {
+            Map<Long, Long> seen = new HashMap<>();
+            missed.forEach(id -> seen.put(id, versions.get(id)));
+            for (Film film : db.getFilmsByIds(missed, FieldSet.ALL)) {
+                versions.loadIfUnchanged(film.getId(), seen.get(film.getId()), () -> memory.load(film));
+                found.put(film.getId(), film);
+            }
+        }
+        return ids.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * Неполный фильм в память не кладется, поэтому промах догружается из базы целиком.
+     * Полный фильм без памяти читается через кэшируемый db.getFilmById(id), неполные - мимо кэша.
+     */
+    @Override
+    public Film getFilmById(long id, FieldSet fields) {
+        if (warm) {
+            try {
+                return memory.getFilmById(id, fields);
+            } catch (DataExistException e) {
+                log.debug("Фильма с ID {} нет в памяти, читаем из базы", id);
+            }
+        }
+        if (enabled) {
+            return reload(id);
+        }
+        return fields.isAll() ? db.getFilmById(id) : db.getFilmById(id, fields);
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (!warm) {
+            return db.findExistingIds(ids);
+        }
+        Set<Long> existing = memory.findExistingIds(ids);
+        List<Long> missed = ids.stream()
+                .filter(id -> !existing.contains(id))
+                .collect(Collectors.toList());
+        if (!missed.isEmpty()) {
+            existing.addAll(db.findExistingIds(missed));
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean exists(long id) {
+        return warm && memory.exists(id) || db.exists(id);
+    }
+
+    @Override
+    public void addLike(Long filmId, Long userId) {
+        db.addLike(filmId, userId);
+        FilmLike like = FilmLike.builder().filmId(filmId).userId(userId).build();
+        afterCommit(() -> versions.change(filmId, () -> memory.addLikes(List.of(like))));
+    }
+
+    @Override
+    public Integer getLikesCount(long filmId) {
+        Integer count = warm ? memory.getLikesCount(filmId) : null;
+        return count != null ? count : db.getLikesCount(filmId);
+    }
+
+    @Override
+    public List<Long> getLikes(long filmId, long after, int limit) {
+        List<Long> page = warm ? memory.getLikes(filmId, after, limit) : null;
+        return page != null ? page : db.getLikes(filmId, after, limit);
+    }
+
+    @Override
+    public void addLikes(List<FilmLike> likes) {
+        db.addLikes(likes);
+        afterCommit(() -> likes.forEach(like ->
+                versions.change(like.getFilmId(), () -> memory.addLikes(List.of(like)))));
+    }
+
+    @Override
+    public void removeLike(Long filmId, Long userId) {
+        db.removeLike(filmId, userId);
+        afterCommit(() -> versions.change(filmId, () -> {
+            try {
+                memory.removeLike(filmId, userId);
+            } catch (DataExistException e) {
+                log.debug("Лайка пользователя {} фильму {} не было в памяти", userId, filmId);
+            }
+        }));
+    }
+
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId) {
+        return warm ? memory.getTopFilms(count, genreId, mpaId) : db.getTopFilms(count, genreId, mpaId);
+    }
+
+    @Override
+    public List<Film> getTopFilms(int count, Integer genreId, Integer mpaId, FieldSet fields) {
+        return warm ? memory.getTopFilms(count, genreId, mpaId, fields)
+                : db.getTopFilms(count, genreId, mpaId, fields);
+    }
+
+    private Film reload(long id) {
+        long version = versions.get(id);
+        Film film = db.getFilmById(id);
+        if (film != null && enabled) {
+            versions.loadIfUnchanged(id, version, () -> memory.load(film));
+        }
+        return film;
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!enabled) {
+            return;
+        }
+        Transactions.afterCommit(action);
+    }
+}
@@ -1,47 +1,57 @@
 package ru.yandex.practicum.filmorate.storage.genre;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.mapper.GenreRowMapper;
 
+import javax.annotation.PostConstruct;
 import java.util.List;
 
 @Component
+@Slf4j
 public class GenreDbStorage implements GenreStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final GenreRowMapper genreRowMapper;
+    private volatile Genre[] genresById = new Genre[0];
+    private volatile List<Genre> allGenres = List.of();
 
-    public GenreDbStorage(JdbcTemplate jdbcTemplate) {
+    public GenreDbStorage(JdbcTemplate jdbcTemplate, GenreRowMapper genreRowMapper) {
         this.jdbcTemplate = jdbcTemplate;
+        this.genreRowMapper = genreRowMapper;
     }
     @Override
     public List<Genre> getAllGenres() {
-        String sqlQuery = "select* from GENRE";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> Genre.builder()
-                .id(rs.getInt("genre_id"))
-                .name(rs.getString("name"))
-                .build());
+        return allGenres;
     }
 
     @Override
     public Genre getGenreById(int id) {
-        String sqlQuery = "select distinct * from GENRE where GENRE_ID = ?";
-        SqlRowSet userRow = jdbcTemplate.queryForRowSet(sqlQuery, id);
-        if (userRow.next()) {
-            return Genre.builder()
-                    .id(userRow.getInt("genre_id"))
-                    .name(userRow.getString("name"))
-                    .build();
+        Genre[] genres = genresById;
+        if (id < 0 || id >= genres.length) {
+            return null;
         }
-        return null;
+        return genres[id];
     }
 
     @Override
     public List<Genre> getGenresByFilmId(Long id) {
-        String sqlQuery = "select distinct * from GENRE G RIGHT JOIN FILM_GENRE FG on G.GENRE_ID = FG.GENRE_ID WHERE FILM_ID = ?";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> Genre.builder()
-                .id(rs.getInt("genre_id"))
-                .name(rs.getString("name"))
-                .build(), id);
+        String sqlQuery = "select distinct GENRE_ID from FILM_GENRE where FILM_ID = ? order by GENRE_ID";
+        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> getGenreById(rs.getInt(1)), id);
+    }
+
+    @PostConstruct
+    @Override
+    public void refresh() {
+        String sqlQuery = "select " + GenreRowMapper.COLUMNS + " from GENRE order by GENRE_ID";
+        List<Genre> loaded = jdbcTemplate.query(sqlQuery, genreRowMapper);
+        Genre[] byId = new Genre[loaded.isEmpty() ? 0 : loaded.get(loaded.size() - 1).getId() + 1];
+        for (Genre genre : loaded) {
+            byId[genre.getId()] = genre;
+        }
+        genresById = byId;
+        allGenres = List.copyOf(loaded);
+        log.debug("Загружен справочник жанров, записей: {}", loaded.size());
     }
 }
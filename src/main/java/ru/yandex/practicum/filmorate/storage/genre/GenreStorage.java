@@ -10,4 +10,6 @@ public interface GenreStorage {
     Genre getGenreById(int id);
 
     List<Genre> getGenresByFilmId(Long id);
+
+    void refresh();
 }
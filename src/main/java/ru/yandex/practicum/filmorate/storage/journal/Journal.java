@@ -0,0 +1,376 @@
+package ru.yandex.practicum.filmorate.storage.journal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+ * Журнал изменений хранилища в памяти. Записи дописываются в сегменты name-N.wal в виде
+ * [длина][crc32][данные]. Одна фоновая нить пишет в файл всё, что накопилось, и делает один force
+ * на пачку (group commit), поэтому параллельные запросы делят одну синхронизацию с диском.
+ * Снимок name-N.snapshot содержит состояние на начало сегмента N: при восстановлении читается
+ * последний снимок и поверх него проигрываются сегменты с номера N. Снимок снимается без остановки
+ * записи, поэтому проигрывание записей должно быть идемпотентным.
+ */
+@Slf4j
+public class Journal implements Closeable {
+    private static final String WAL = ".wal";
+    private static final String SNAPSHOT = ".snapshot";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path dir;
+    private final String name;
+    private final boolean sync;
+    private final Object queueLock = new Object();
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+    private List<byte[]> pending = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private volatile boolean running;
+    private FileChannel channel;
+    private long segment;
+    private Thread writer;
+
+    public Journal(Path dir, String name, boolean sync) {
+        this.dir = dir;
+        this.name = name;
+        this.sync = sync;
+    }
+
+    /*
+     * Читает последний снимок и проигрывает журнал после него, затем открывает новый сегмент
+     * и запускает запись. Оборванная при сбое последняя запись отбрасывается.
+     */
+    public void open(Reader snapshotReader, Reader recordReader) {
+        try {
+            Files.createDirectories(dir);
+            long start = 0;
+            List<Long> snapshots = list(SNAPSHOT);
+            if (!snapshots.isEmpty()) {
+                start = snapshots.get(snapshots.size() - 1);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(file(start, SNAPSHOT)), 1 << 16))) {
+                    snapshotReader.read(in);
+                }
+            }
+            long records = 0;
+            segment = start;
+            for (long number : list(WAL)) {
+                if (number >= start) {
+                    records += replay(file(number, WAL), recordReader);
+                }
+                segment = Math.max(segment, number + 1);
+            }
+            channel = openSegment(segment);
+            log.info("Журнал {} восстановлен: снимок {}, проиграно записей: {}", name, start, records);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось восстановить журнал " + name, e);
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "journal-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /*
+     * Ставит запись в очередь и возвращает ее номер. Вызывается под блокировкой сущности,
+     * поэтому порядок записей в журнале совпадает с порядком изменений в памяти.
+     */
+    public long append(Writer record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            record.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (queueLock) {
+            checkFailure();
+            if (!running) {
+                throw new IllegalStateException("Журнал " + name + " закрыт");
+            }
+            pending.add(bytes.toByteArray());
+            appended++;
+            queueLock.notifyAll();
+            return appended;
+        }
+    }
+
+    /*
+     * Изменение хранилища держит эту блокировку от записи в журнал до применения в памяти,
+     * а roll() ждет, пока такие изменения закончатся. Поэтому снимок, снятый после roll(), видит
+     * в памяти все записи прошлых сегментов. Берется раньше блокировок сущностей.
+     */
+    public Lock changeLock() {
+        return changes.readLock();
+    }
+
+    // ждет, пока запись с этим номером окажется на диске
+    public void await(long number) {
+        synchronized (queueLock) {
+            while (durable < number) {
+                checkFailure();
+                try {
+                    queueLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Ожидание записи журнала " + name + " прервано", e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Начинает новый сегмент и пишет рядом снимок состояния. После успешной записи
+     * старые снимки и сегменты удаляются.
+     */
+    public synchronized void snapshot(Writer snapshotWriter) {
+        try {
+            long start = roll();
+            Path tmp = dir.resolve(name + "-" + start + SNAPSHOT + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(out), 1 << 16));
+                snapshotWriter.write(stream);
+                stream.flush();
+                out.force(true);
+            }
+            Files.move(tmp, file(start, SNAPSHOT), StandardCopyOption.ATOMIC_MOVE);
+            for (long number : list(SNAPSHOT)) {
+                if (number < start) {
+                    Files.deleteIfExists(file(number, SNAPSHOT));
+                }
+            }
+            for (long number : list(WAL)) {
+                if (number < start) {
+                    Files.deleteIfExists(file(number, WAL));
+                }
+            }
+            log.info("Снимок журнала {} записан, начат сегмент {}", name, start);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать снимок журнала " + name, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        synchronized (queueLock) {
+            running = false;
+            queueLock.notifyAll();
+        }
+        try {
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть журнал {}", name, e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            synchronized (queueLock) {
+                while (pending.isEmpty() && running) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+            }
+            channelLock.lock();
+            try {
+                flush(channel);
+            } finally {
+                channelLock.unlock();
+            }
+        }
+    }
+
+    // дописывает накопленные записи в текущий сегмент; вызывается под channelLock
+    private void flush(FileChannel target) {
+        List<byte[]> batch;
+        long upTo;
+        synchronized (queueLock) {
+            batch = pending;
+            upTo = appended;
+            pending = new ArrayList<>();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            int size = 0;
+            for (byte[] record : batch) {
+                size += HEADER_SIZE + record.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            CRC32 crc = new CRC32();
+            for (byte[] record : batch) {
+                crc.reset();
+                crc.update(record);
+                buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            if (sync) {
+                target.force(false);
+            }
+            synchronized (queueLock) {
+                durable = Math.max(durable, upTo);
+                queueLock.notifyAll();
+            }
+        } catch (IOException e) {
+            log.error("Ошибка записи журнала {}", name, e);
+            synchronized (queueLock) {
+                failure = e;
+                queueLock.notifyAll();
+            }
+        }
+    }
+
+    // закрывает текущий сегмент, дописав в него очередь, и открывает следующий
+    private long roll() throws IOException {
+        changes.writeLock().lock();
+        channelLock.lock();
+        try {
+            flush(channel);
+            synchronized (queueLock) {
+                checkFailure();
+            }
+            channel.force(true);
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+            return segment;
+        } finally {
+            channelLock.unlock();
+            changes.writeLock().unlock();
+        }
+    }
+
+    private long replay(Path path, Reader recordReader) throws IOException {
+        long records = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream stream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in), 1 << 16));
+            long position = 0;
+            long size = in.size();
+            CRC32 crc = new CRC32();
+            while (position + HEADER_SIZE <= size) {
+                int length = stream.readInt();
+                int checksum = stream.readInt();
+                if (length < 0 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                stream.readFully(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                recordReader.read(new DataInputStream(new ByteArrayInputStream(record)));
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            if (position < size) {
+                log.warn("Журнал {}: отброшен оборванный хвост сегмента {} ({} байт)", name, path.getFileName(),
+                        size - position);
+                in.truncate(position);
+            }
+        }
+        return records;
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(file(number, WAL), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private List<Long> list(String suffix) throws IOException {
+        String prefix = name + "-";
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.startsWith(prefix) && file.endsWith(suffix))
+                    .map(file -> file.substring(prefix.length(), file.length() - suffix.length()))
+                    .filter(number -> !number.isEmpty() && number.chars().allMatch(Character::isDigit))
+                    .map(Long::parseLong)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path file(long number, String suffix) {
+        return dir.resolve(name + "-" + number + suffix);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Журнал " + name + " недоступен для записи", failure);
+        }
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeDate(DataOutput out, LocalDate value) throws IOException {
+        out.writeLong(value == null ? Long.MIN_VALUE : value.toEpochDay());
+    }
+
+    public static LocalDate readDate(DataInput in) throws IOException {
+        long epochDay = in.readLong();
+        return epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(DataOutput out) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Reader {
+        void read(DataInput in) throws IOException;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.storage.journal;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/*
+ * Открывает журналы хранилищ в памяти. По умолчанию журналирование выключено
+ * и хранилища в памяти работают как раньше, без файлов.
+ */
+@Component
+public class JournalFactory {
+    private final boolean enabled;
+    private final Path dir;
+    private final boolean sync;
+
+    public JournalFactory(@Value("${filmorate.memory.journal.enabled:false}") boolean enabled,
+                          @Value("${filmorate.memory.journal.dir:./db/journal}") String dir,
+                          @Value("${filmorate.memory.journal.sync:true}") boolean sync) {
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.sync = sync;
+    }
+
+    public Optional<Journal> create(String name) {
+        return enabled ? Optional.of(new Journal(dir, name, sync)) : Optional.empty();
+    }
+}
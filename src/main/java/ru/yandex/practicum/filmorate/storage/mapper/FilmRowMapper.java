@@ -0,0 +1,37 @@
+package ru.yandex.practicum.filmorate.storage.mapper;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.LikeSet;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Objects;
+
+@Component
+public class FilmRowMapper implements RowMapper<Film> {
+    public static final String COLUMNS = "FILM_ID, NAME, DESCRIPTION, RELEASE_DATE, FILM_DURATION, MPA_ID";
+
+    private final MpaStorage mpaStorage;
+
+    public FilmRowMapper(MpaStorage mpaStorage) {
+        this.mpaStorage = mpaStorage;
+    }
+
+    @Override
+    public Film mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return Film.builder()
+                .id(rs.getLong(1))
+                .name(rs.getString(2))
+                .description(rs.getString(3))
+                .releaseDate(Objects.requireNonNull(rs.getDate(4)).toLocalDate())
+                .duration(rs.getInt(5))
+                .mpa(mpaStorage.getMpaById(rs.getInt(6)))
+                .genres(new ArrayList<>())
+                .likes(new LikeSet())
+                .build();
+    }
+}
@@ -0,0 +1,21 @@
+package ru.yandex.practicum.filmorate.storage.mapper;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Genre;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@Component
+public class GenreRowMapper implements RowMapper<Genre> {
+    public static final String COLUMNS = "GENRE_ID, NAME";
+
+    @Override
+    public Genre mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return Genre.builder()
+                .id(rs.getInt(1))
+                .name(rs.getString(2))
+                .build();
+    }
+}
@@ -0,0 +1,21 @@
+package ru.yandex.practicum.filmorate.storage.mapper;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@Component
+public class MpaRowMapper implements RowMapper<Mpa> {
+    public static final String COLUMNS = "MPA_ID, NAME";
+
+    @Override
+    public Mpa mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return Mpa.builder()
+                .id(rs.getInt(1))
+                .name(rs.getString(2))
+                .build();
+    }
+}
@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.storage.mapper;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+@Component
+public class UserRowMapper implements RowMapper<User> {
+    public static final String COLUMNS = "USER_ID, NAME, LOGIN, BIRTHDAY, EMAIL";
+
+    @Override
+    public User mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return User.builder()
+                .id(rs.getLong(1))
+                .name(rs.getString(2))
+                .login(rs.getString(3))
+                .birthday(Objects.requireNonNull(rs.getDate(4)).toLocalDate())
+                .email(rs.getString(5))
+                .build();
+    }
+}
@@ -1,39 +1,52 @@
 package ru.yandex.practicum.filmorate.storage.mpa;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.mapper.MpaRowMapper;
 
+import javax.annotation.PostConstruct;
 import java.util.List;
 
 @Component
+@Slf4j
 public class MpaDbStorage implements MpaStorage{
     private final JdbcTemplate jdbcTemplate;
+    private final MpaRowMapper mpaRowMapper;
+    private volatile Mpa[] mpaById = new Mpa[0];
+    private volatile List<Mpa> allMpa = List.of();
 
-    public MpaDbStorage(JdbcTemplate jdbcTemplate) {
+    public MpaDbStorage(JdbcTemplate jdbcTemplate, MpaRowMapper mpaRowMapper) {
         this.jdbcTemplate = jdbcTemplate;
+        this.mpaRowMapper = mpaRowMapper;
     }
 
     @Override
     public List<Mpa> getAllMpa() {
-        String sqlQuery = "select* from MPA";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> Mpa.builder()
-                .id(rs.getInt("mpa_id"))
-                .name(rs.getString("name"))
-                .build());
+        return allMpa;
     }
 
     @Override
     public Mpa getMpaById(int id) {
-        String sqlQuery = "select* from MPA where MPA_ID = ?";
-        SqlRowSet userRow = jdbcTemplate.queryForRowSet(sqlQuery, id);
-        if (userRow.next()) {
-            return Mpa.builder()
-                    .id(userRow.getInt("mpa_id"))
-                    .name(userRow.getString("name"))
-                    .build();
+        Mpa[] mpa = mpaById;
+        if (id < 0 || id >= mpa.length) {
+            return null;
         }
-        return null;
+        return mpa[id];
+    }
+
+    @PostConstruct
+    @Override
+    public void refresh() {
+        String sqlQuery = "select " + MpaRowMapper.COLUMNS + " from MPA order by MPA_ID";
+        List<Mpa> loaded = jdbcTemplate.query(sqlQuery, mpaRowMapper);
+        Mpa[] byId = new Mpa[loaded.isEmpty() ? 0 : loaded.get(loaded.size() - 1).getId() + 1];
+        for (Mpa mpa : loaded) {
+            byId[mpa.getId()] = mpa;
+        }
+        mpaById = byId;
+        allMpa = List.copyOf(loaded);
+        log.debug("Загружен справочник mpa, записей: {}", loaded.size());
     }
 }
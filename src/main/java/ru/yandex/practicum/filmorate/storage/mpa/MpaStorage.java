@@ -7,4 +7,6 @@ import java.util.List;
 public interface MpaStorage {
     List<Mpa> getAllMpa();
     Mpa getMpaById(int id);
+
+    void refresh();
 }
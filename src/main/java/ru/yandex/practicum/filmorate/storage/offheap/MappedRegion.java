@@ -0,0 +1,127 @@
+package ru.yandex.practicum.filmorate.storage.offheap;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Файл, отображенный в память кусками фиксированного размера. Адрес - смещение от начала файла,
+ * куски отображаются по мере роста, файл создается при первой записи. Данные лежат вне кучи
+ * и не нагружают сборщик мусора. Файл служит рабочей памятью и удаляется при закрытии.
+ */
+@Slf4j
+public class MappedRegion implements Closeable {
+    public static final int DEFAULT_CHUNK_BITS = 26;
+
+    private final Path file;
+    private final int chunkBits;
+    private final long chunkSize;
+    private FileChannel channel;
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    public MappedRegion(Path file) {
+        this(file, DEFAULT_CHUNK_BITS);
+    }
+
+    public MappedRegion(Path file, int chunkBits) {
+        this.file = file;
+        this.chunkBits = chunkBits;
+        this.chunkSize = 1L << chunkBits;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    // отображает файл так, чтобы адреса до end были доступны
+    public void ensure(long end) {
+        int needed = (int) ((end + chunkSize - 1) >>> chunkBits);
+        if (needed <= chunks.length) {
+            return;
+        }
+        synchronized (this) {
+            if (needed <= chunks.length) {
+                return;
+            }
+            try {
+                if (channel == null) {
+                    Files.createDirectories(file.toAbsolutePath().getParent());
+                    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                MappedByteBuffer[] grown = Arrays.copyOf(chunks, needed);
+                for (int i = chunks.length; i < needed; i++) {
+                    grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * chunkSize, chunkSize);
+                }
+                chunks = grown;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось отобразить в память файл " + file, e);
+            }
+        }
+    }
+
+    public boolean contains(long position) {
+        return position >= 0 && (position >>> chunkBits) < chunks.length;
+    }
+
+    public long getLong(long position) {
+        return chunk(position).getLong(offset(position));
+    }
+
+    public void putLong(long position, long value) {
+        chunk(position).putLong(offset(position), value);
+    }
+
+    public int getInt(long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    public void putInt(long position, int value) {
+        chunk(position).putInt(offset(position), value);
+    }
+
+    // массив байт не должен пересекать границу куска
+    public void get(long position, byte[] target) {
+        ByteBuffer view = chunk(position).duplicate();
+        view.position(offset(position));
+        view.get(target);
+    }
+
+    public void put(long position, byte[] source) {
+        ByteBuffer view = chunk(position).duplicate();
+        view.position(offset(position));
+        view.put(source);
+    }
+
+    @Override
+    public synchronized void close() {
+        chunks = new MappedByteBuffer[0];
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл {}", file, e);
+        }
+        channel = null;
+    }
+
+    private MappedByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> chunkBits)];
+    }
+
+    private int offset(long position) {
+        return (int) (position & (chunkSize - 1));
+    }
+}
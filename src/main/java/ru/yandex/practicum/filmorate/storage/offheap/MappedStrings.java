@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.storage.offheap;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Куча строк переменной длины в отображенном файле: [длина][байты UTF-8]. Запись только
+ * дописывается, ссылка на строку - ее адрес, -1 означает null. Замененные строки не освобождаются.
+ */
+public class MappedStrings implements Closeable {
+    public static final long NULL = -1;
+
+    private final MappedRegion region;
+    private long tail;
+
+    public MappedStrings(MappedRegion region) {
+        this.region = region;
+    }
+
+    public long write(String value) {
+        return value == null ? NULL : write(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public synchronized long write(byte[] bytes) {
+        long size = Integer.BYTES + bytes.length;
+        if (size > region.getChunkSize()) {
+            throw new IllegalArgumentException("Строка длиной " + bytes.length + " байт не помещается в кусок файла");
+        }
+        long position = tail;
+        long chunkEnd = (position / region.getChunkSize() + 1) * region.getChunkSize();
+        if (position + size > chunkEnd) {
+            position = chunkEnd;
+        }
+        region.ensure(position + size);
+        region.putInt(position, bytes.length);
+        region.put(position + Integer.BYTES, bytes);
+        tail = position + size;
+        return position;
+    }
+
+    public String read(long reference) {
+        return reference == NULL ? null : new String(readBytes(reference), StandardCharsets.UTF_8);
+    }
+
+    public byte[] readBytes(long reference) {
+        byte[] bytes = new byte[region.getInt(reference)];
+        region.get(reference + Integer.BYTES, bytes);
+        return bytes;
+    }
+
+    public synchronized long size() {
+        return tail;
+    }
+
+    @Override
+    public void close() {
+        region.close();
+    }
+}
@@ -0,0 +1,339 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Граф друзей в виде CSR: строки есть только у пользователей с друзьями, их id отсортированы
+ * в rowIds, а друзья строки k лежат в targets с offsets[k] по offsets[k + 1] по возрастанию.
+ * Новые изменения пишутся в журнал по пользователю, а когда журнал вырастает до четверти шарда,
+ * шард пересобирается: неизмененные строки копируются целиком, заново сливаются только измененные.
+ * Операции над пользователем пропорциональны числу его друзей и логарифму числа строк.
+ * Граф разбит на шарды по id пользователя, у каждого шарда свои CSR, журнал и блокировка:
+ * чтения шарда идут параллельно под блокировкой чтения, изменения и пересборка - под блокировкой
+ * записи, поэтому изменения друзей разных пользователей обычно не ждут друг друга.
+ * Общие друзья читаются из двух шардов по очереди, каждая строка согласована сама по себе.
+ */
+public class FriendGraph {
+    private static final int MIN_LOG_SIZE = 1024;
+    private static final int GALLOP_RATIO = 16;
+    private static final long[] EMPTY = new long[0];
+
+    private final Shard[] shards;
+    private final int mask;
+
+    public FriendGraph() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public FriendGraph(int shards) {
+        int size = Integer.highestOneBit(Math.max(2, shards - 1)) << 1;
+        this.shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            this.shards[i] = new Shard();
+        }
+        mask = size - 1;
+    }
+
+    public boolean contains(long userId, long friendId) {
+        return shard(userId).contains(userId, friendId);
+    }
+
+    public boolean add(long userId, long friendId) {
+        return shard(userId).add(userId, friendId);
+    }
+
+    public boolean remove(long userId, long friendId) {
+        return shard(userId).remove(userId, friendId);
+    }
+
+    public long[] getFriends(long userId) {
+        return shard(userId).getFriends(userId);
+    }
+
+    public int getFriendsCount(long userId) {
+        return shard(userId).getFriendsCount(userId);
+    }
+
+    public long[] getCommonFriends(long userId, long otherId) {
+        long[] a = getFriends(userId);
+        long[] b = getFriends(otherId);
+        if (a.length > b.length) {
+            long[] t = a;
+            a = b;
+            b = t;
+        }
+        return (long) a.length * GALLOP_RATIO < b.length ? gallopIntersect(a, b) : mergeIntersect(a, b);
+    }
+
+    static long[] mergeIntersect(long[] a, long[] b) {
+        long[] common = new long[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                common[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, size);
+    }
+
+    static long[] gallopIntersect(long[] small, long[] large) {
+        long[] common = new long[small.length];
+        int size = 0;
+        int low = 0;
+        for (long value : small) {
+            int step = 1;
+            int high = low;
+            while (high < large.length && large[high] < value) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(large, low, Math.min(high + 1, large.length), value);
+            if (index >= 0) {
+                common[size++] = value;
+                low = index + 1;
+            } else {
+                low = -index - 1;
+            }
+            if (low >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(common, size);
+    }
+
+    private Shard shard(long userId) {
+        return shards[(int) ((userId * 0x9E3779B97F4A7C15L) >>> 32) & mask];
+    }
+
+    private static class Shard {
+        private long[] rowIds = EMPTY;
+        private int[] offsets = new int[1];
+        private long[] targets = EMPTY;
+        private final Map<Long, Edits> log = new HashMap<>();
+        private int logSize;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private boolean contains(long userId, long friendId) {
+            lock.readLock().lock();
+            try {
+                return containsEdge(userId, friendId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private boolean add(long userId, long friendId) {
+            lock.writeLock().lock();
+            try {
+                return addEdge(userId, friendId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private boolean remove(long userId, long friendId) {
+            lock.writeLock().lock();
+            try {
+                return removeEdge(userId, friendId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private long[] getFriends(long userId) {
+            lock.readLock().lock();
+            try {
+                return friendsOf(userId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int getFriendsCount(long userId) {
+            lock.readLock().lock();
+            try {
+                int row = rowOf(userId);
+                int count = row < 0 ? 0 : offsets[row + 1] - offsets[row];
+                Edits edits = log.get(userId);
+                return edits == null ? count : count + edits.added.size - edits.removed.size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private boolean containsEdge(long userId, long friendId) {
+            Edits edits = log.get(userId);
+            if (edits != null) {
+                if (edits.added.contains(friendId)) {
+                    return true;
+                }
+                if (edits.removed.contains(friendId)) {
+                    return false;
+                }
+            }
+            return baseIndexOf(userId, friendId) >= 0;
+        }
+
+        private boolean addEdge(long userId, long friendId) {
+            if (containsEdge(userId, friendId)) {
+                return false;
+            }
+            Edits edits = log.computeIfAbsent(userId, k -> new Edits());
+            if (!edits.removed.remove(friendId)) {
+                edits.added.add(friendId);
+            }
+            logSize++;
+            compactIfNeeded();
+            return true;
+        }
+
+        private boolean removeEdge(long userId, long friendId) {
+            if (!containsEdge(userId, friendId)) {
+                return false;
+            }
+            Edits edits = log.computeIfAbsent(userId, k -> new Edits());
+            if (!edits.added.remove(friendId)) {
+                edits.removed.add(friendId);
+            }
+            logSize++;
+            compactIfNeeded();
+            return true;
+        }
+
+        private long[] friendsOf(long userId) {
+            int from = baseFrom(userId);
+            int to = baseTo(userId);
+            Edits edits = log.get(userId);
+            if (edits == null) {
+                return Arrays.copyOfRange(targets, from, to);
+            }
+            long[] row = new long[to - from + edits.added.size];
+            int size = 0;
+            int j = 0;
+            for (int i = from; i < to; i++) {
+                long friendId = targets[i];
+                while (j < edits.added.size && edits.added.values[j] < friendId) {
+                    row[size++] = edits.added.values[j++];
+                }
+                if (!edits.removed.contains(friendId)) {
+                    row[size++] = friendId;
+                }
+            }
+            while (j < edits.added.size) {
+                row[size++] = edits.added.values[j++];
+            }
+            return size == row.length ? row : Arrays.copyOf(row, size);
+        }
+
+        private int rowOf(long userId) {
+            return Arrays.binarySearch(rowIds, userId);
+        }
+
+        private int baseFrom(long userId) {
+            int row = rowOf(userId);
+            return row < 0 ? 0 : offsets[row];
+        }
+
+        private int baseTo(long userId) {
+            int row = rowOf(userId);
+            return row < 0 ? 0 : offsets[row + 1];
+        }
+
+        private int baseIndexOf(long userId, long friendId) {
+            int from = baseFrom(userId);
+            int to = baseTo(userId);
+            return from == to ? -1 : Arrays.binarySearch(targets, from, to, friendId);
+        }
+
+        private void compactIfNeeded() {
+            if (logSize <= Math.max(MIN_LOG_SIZE, (rowIds.length + targets.length) / 4)) {
+                return;
+            }
+            long[] changedIds = log.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            long[][] changedRows = new long[changedIds.length][];
+            for (int i = 0; i < changedIds.length; i++) {
+                changedRows[i] = friendsOf(changedIds[i]);
+            }
+            long[] newRowIds = new long[rowIds.length + changedIds.length];
+            int[] newOffsets = new int[newRowIds.length + 1];
+            long[] newTargets = new long[targets.length + logSize];
+            int rows = 0;
+            int total = 0;
+            int i = 0;
+            int j = 0;
+            while (i < rowIds.length || j < changedIds.length) {
+                if (j == changedIds.length || i < rowIds.length && rowIds[i] < changedIds[j]) {
+                    int length = offsets[i + 1] - offsets[i];
+                    System.arraycopy(targets, offsets[i], newTargets, total, length);
+                    newRowIds[rows] = rowIds[i++];
+                    total += length;
+                } else {
+                    if (i < rowIds.length && rowIds[i] == changedIds[j]) {
+                        i++;
+                    }
+                    long[] row = changedRows[j];
+                    if (row.length == 0) {
+                        j++;
+                        continue;
+                    }
+                    System.arraycopy(row, 0, newTargets, total, row.length);
+                    newRowIds[rows] = changedIds[j++];
+                    total += row.length;
+                }
+                newOffsets[++rows] = total;
+            }
+            rowIds = Arrays.copyOf(newRowIds, rows);
+            offsets = Arrays.copyOf(newOffsets, rows + 1);
+            targets = total == newTargets.length ? newTargets : Arrays.copyOf(newTargets, total);
+            log.clear();
+            logSize = 0;
+        }
+    }
+
+    private static class Edits {
+        private final SortedLongs added = new SortedLongs();
+        private final SortedLongs removed = new SortedLongs();
+    }
+
+    private static class SortedLongs {
+        private long[] values = EMPTY;
+        private int size;
+
+        private boolean contains(long value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        private void add(long value) {
+            int index = -Arrays.binarySearch(values, 0, size, value) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(4, size * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+        }
+
+        private boolean remove(long value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/*
+ * Друзья пользователя, которые читаются из FriendGraph при обращении. Своей копии друзей
+ * у пользователя нет, поэтому копия пользователя стоит одинаково при любом числе друзей,
+ * а список друзей собирается, только когда его действительно читают. Изменяется набор через граф.
+ */
+class GraphFriends extends AbstractSet<Long> {
+    private final FriendGraph graph;
+    private final long userId;
+
+    GraphFriends(FriendGraph graph, long userId) {
+        this.graph = graph;
+        this.userId = userId;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return Arrays.stream(graph.getFriends(userId)).iterator();
+    }
+
+    @Override
+    public int size() {
+        return graph.getFriendsCount(userId);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && graph.contains(userId, (Long) o);
+    }
+}
@@ -1,19 +1,58 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.StripedLocks;
+import ru.yandex.practicum.filmorate.storage.journal.Journal;
+import ru.yandex.practicum.filmorate.storage.journal.JournalFactory;
 
+import javax.annotation.PreDestroy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+/*
+ * Дружба меняется под блокировками полос обоих пользователей, поэтому встречные запросы
+ * на одну пару не расходятся. Друзья хранятся только в FriendGraph, а у пользователя вместо
+ * своего набора - GraphFriends поверх графа. Наружу отдаются копии пользователей.
+ * Изменения пишутся в журнал так же, как в InMemoryFilmStorage.
+ */
 @Component
 @Slf4j
 public class InMemoryUserStorage implements UserStorage {
-    private final Map<Long, User> users = new HashMap<>();
-    private long id = 1;
+    private final NavigableMap<Long, User> users = new ConcurrentSkipListMap<>();
+    private final FriendGraph friendGraph = new FriendGraph();
+    private final StripedLocks locks = new StripedLocks();
+    private final AtomicLong id = new AtomicLong(1);
+    private final Journal journal;
+
+    private static final byte USER_PUT = 1;
+    private static final byte USER_REMOVE = 2;
+    private static final byte FRIEND_ADD = 3;
+    private static final byte FRIEND_REMOVE = 4;
+
+    public InMemoryUserStorage() {
+        journal = null;
+    }
+
+    @Autowired
+    public InMemoryUserStorage(JournalFactory journals) {
+        journal = journals.create("users").orElse(null);
+        if (journal != null) {
+            journal.open(this::readSnapshot, this::replay);
+            dropRemovedFriends();
+        }
+    }
 
     @Override
     public User addUser(User user) throws DataExistException, ValidationException {
@@ -21,111 +60,382 @@ public class InMemoryUserStorage implements UserStorage {
             log.debug("Попытка создать юзера, который уже существует");
             throw new DataExistException("Такой пользователь уже существует.");
         } else {
-            user.setFriends(new TreeSet<>());
-            user.setId(id);
-            id++;
-            users.put(user.getId(), user);
+            awaitRecord(insert(user));
             log.debug("Новый пользователь {} добавлен. Всего их: " + users.size(), user.getLogin());
             log.debug("Пользователь " + user);
         }
-        return users.get(user.getId());
+        return snapshot(user);
+    }
+
+    @Override
+    public void addUsers(List<User> users) {
+        long number = 0;
+        for (User user : users) {
+            number = insert(user);
+        }
+        awaitRecord(number);
+        log.debug("Добавлено пользователей: {}. Всего их: {}", users.size(), this.users.size());
     }
 
     @Override
     public User updateUser(User user) throws DataExistException, ValidationException {
-        if (!users.containsKey(user.getId())) {
-            log.debug("Попытка обновить несуществующего пользователя");
-            throw new DataExistException("Такой пользователь не существует.");
-        } else {
-            user.setFriends(users.get(user.getId()).getFriends());
+        long number;
+        beginChange();
+        locks.lock(user.getId());
+        try {
+            User old = users.get(user.getId());
+            if (old == null) {
+                log.debug("Попытка обновить несуществующего пользователя");
+                throw new DataExistException("Такой пользователь не существует.");
+            }
+            user.setFriends(old.getFriends());
+            number = record(out -> {
+                out.writeByte(USER_PUT);
+                writeUser(out, user);
+            });
             users.put(user.getId(), user);
-            log.debug("Данные пользователя {} обновлены", user.getLogin());
-            log.debug("Пользователь " + user);
+        } finally {
+            locks.unlock(user.getId());
+            endChange();
         }
-        return users.get(user.getId());
+        awaitRecord(number);
+        log.debug("Данные пользователя {} обновлены", user.getLogin());
+        log.debug("Пользователь " + user);
+        return snapshot(user);
     }
     @Override
     public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());
+        return users.values().stream()
+                .map(this::snapshot)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        users.values().forEach(user -> action.accept(snapshot(user)));
+    }
+
+    @Override
+    public List<User> getUsers(long after, int limit) {
+        return users.tailMap(after, false).values().stream()
+                .limit(limit)
+                .map(this::snapshot)
+                .collect(Collectors.toList());
     }
 
     @Override
     public User getUserById(long id) throws DataExistException {
-        if (!users.containsKey(id)) {
-            log.debug("Попытка получить пользователя по несуществуемому ID.");
-            throw new DataExistException("Пользователь с ID " + id + " не существует.");
-        }
-        return users.get(id);
+        return snapshot(getStoredUser(id));
+    }
+
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        return ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(this::snapshot)
+                .collect(Collectors.toList());
     }
 
     @Override
     public void removeUserById(long id) throws DataExistException {
-        if (!users.containsKey(id)) {
-            log.debug("Попытка удалить пользователя с несуществуеющим ID.");
-            throw new DataExistException("Пользователь с ID " + id + " не существует.");
+        long number;
+        // связи снимаются после записи USER_REMOVE, поэтому снимок не должен начаться посередине
+        beginChange();
+        try {
+            locks.lock(id);
+            try {
+                if (!users.containsKey(id)) {
+                    log.debug("Попытка удалить пользователя с несуществуеющим ID.");
+                    throw new DataExistException("Пользователь с ID " + id + " не существует.");
+                }
+                number = record(out -> {
+                    out.writeByte(USER_REMOVE);
+                    out.writeLong(id);
+                });
+                users.remove(id);
+            } finally {
+                locks.unlock(id);
+            }
+            // пользователь уже не виден, новые связи с ним не появятся - снимаем оставшиеся по одной паре
+            for (long friendId : friendGraph.getFriends(id)) {
+                locks.lock(id, friendId);
+                try {
+                    friendGraph.remove(id, friendId);
+                    friendGraph.remove(friendId, id);
+                } finally {
+                    locks.unlock(id, friendId);
+                }
+            }
+        } finally {
+            endChange();
         }
-        users.remove(id);
+        awaitRecord(number);
     }
 
     @Override
     public void addFriend(long userId, long friendId) throws DataExistException {
-        User user = users.get(userId);
-        User friend = users.get(friendId);
-        if (user.getFriends() != null) {
-            if (user.getFriends().contains(friend.getId())) {
+        long number;
+        beginChange();
+        locks.lock(userId, friendId);
+        try {
+            User user = getStoredUser(userId);
+            User friend = getStoredUser(friendId);
+            if (friendGraph.contains(userId, friendId)) {
                 log.debug("Попытка повторно добавить друга c ID " + friend.getId() + " в друзья к пользователю " +
                         "с ID " + user.getId() + ".");
                 throw new DataExistException("у пользователя с ID: " + user.getId() + " уже есть друг с ID: "
                         + friend.getId());
             }
+            number = recordFriendship(FRIEND_ADD, userId, friendId);
+            friendGraph.add(userId, friendId);
+            friendGraph.add(friendId, userId);
+        } finally {
+            locks.unlock(userId, friendId);
+            endChange();
         }
-        user.addFriend(friendId);
-        log.debug("Пользователь с ID: " + user.getId() + " добавил в друзья друга с ID: " + friend.getId());
-        friend.addFriend(userId);
-        log.debug("Пользователь с ID: " + user.getId() + " добавлен в друзья у друга с ID: " + friend.getId());
+        awaitRecord(number);
+        log.debug("Пользователь с ID: " + userId + " добавил в друзья друга с ID: " + friendId);
+        log.debug("Пользователь с ID: " + userId + " добавлен в друзья у друга с ID: " + friendId);
     }
 
     @Override
-    public List<User> getAllFriends(long id) {
-        return getAllUsers().stream()
-                .filter(x -> {
-                    try {
-                        return getUserById(id).getFriends().contains(x.getId());
-                    } catch (DataExistException e) {
-                        throw new RuntimeException(e.getMessage());
-                    }
-                })
-                .collect(Collectors.toList());
+    public List<User> getAllFriends(long id) throws DataExistException {
+        getStoredUser(id);
+        return toUsers(friendGraph.getFriends(id));
     }
 
     @Override
     public List<User> getCommonFriends(long id, long otherId) throws DataExistException {
-        List<User> commonFriends = new ArrayList<>();
-        for (long friendId : getUserById(id).getFriends()) {
-            for (long friendId2 : getUserById(otherId).getFriends()) {
-                if (friendId == friendId2) {
-                    commonFriends.add(getUserById(friendId2));
-                }
-            }
-        }
-        return commonFriends;
+        getStoredUser(id);
+        getStoredUser(otherId);
+        return toUsers(friendGraph.getCommonFriends(id, otherId));
     }
 
     @Override
     public void removeFriend(long userId, long friendId) throws DataExistException {
-        User user = users.get(userId);
-        User friend = users.get(friendId);
-        if (user.getFriends() != null) {
-            if (!user.getFriends().contains(friend.getId())) {
+        long number;
+        beginChange();
+        locks.lock(userId, friendId);
+        try {
+            User user = getStoredUser(userId);
+            User friend = getStoredUser(friendId);
+            if (!friendGraph.contains(userId, friendId)) {
                 log.debug("Попытка удалить друга c ID " + friend.getId() + ", который не был добавлен в друзья " +
                         "к пользователю с ID " + user.getId() + ".");
                 throw new DataExistException("Пользователь с ID: " + user.getId() + " еще не добавил друга с ID: "
                         + friend.getId());
             }
+            number = recordFriendship(FRIEND_REMOVE, userId, friendId);
+            friendGraph.remove(userId, friendId);
+            friendGraph.remove(friendId, userId);
+        } finally {
+            locks.unlock(userId, friendId);
+            endChange();
+        }
+        awaitRecord(number);
+        log.debug("Пользователь с ID: " + userId + " удалил из друзей друга с ID: " + friendId);
+        log.debug("Пользователь с ID: " + userId + " удален из друзей у друга с ID: " + friendId);
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(users::containsKey)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean exists(long id) {
+        return users.containsKey(id);
+    }
+
+    private List<User> toUsers(long[] ids) {
+        List<User> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            User user = users.get(id);
+            if (user != null) {
+                result.add(snapshot(user));
+            }
         }
-        user.removeFriend(friendId);
-        log.debug("Пользователь с ID: " + user.getId() + " удалил из друзей друга с ID: " + friend.getId());
-        friend.removeFriend(userId);
-        log.debug("Пользователь с ID: " + user.getId() + " удален из друзей у друга с ID: " + friend.getId());
+        return result;
+    }
+
+    private User getStoredUser(long id) throws DataExistException {
+        User user = users.get(id);
+        if (user == null) {
+            log.debug("Попытка получить пользователя по несуществуемому ID.");
+            throw new DataExistException("Пользователь с ID " + id + " не существует.");
+        }
+        return user;
+    }
+
+    // сохраненный пользователь не меняется после записи в users, а друзья читаются из графа
+    private User snapshot(User user) {
+        return user.toBuilder().build();
+    }
+
+    private long insert(User user) {
+        user.setId(id.getAndIncrement());
+        user.setFriends(new GraphFriends(friendGraph, user.getId()));
+        beginChange();
+        locks.lock(user.getId());
+        try {
+            long number = record(out -> {
+                out.writeByte(USER_PUT);
+                writeUser(out, user);
+            });
+            users.put(user.getId(), user);
+            return number;
+        } finally {
+            locks.unlock(user.getId());
+            endChange();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.memory.journal.snapshot-interval-ms:600000}",
+            initialDelayString = "${filmorate.memory.journal.snapshot-interval-ms:600000}")
+    public void snapshot() {
+        if (journal == null) {
+            return;
+        }
+        journal.snapshot(out -> {
+            out.writeLong(id.get());
+            for (User stored : users.values()) {
+                long[] friends = friendGraph.getFriends(stored.getId());
+                out.writeBoolean(true);
+                writeUser(out, stored);
+                out.writeInt(friends.length);
+                for (long friendId : friends) {
+                    out.writeLong(friendId);
+                }
+            }
+            out.writeBoolean(false);
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private long record(Journal.Writer record) {
+        return journal == null ? 0 : journal.append(record);
+    }
+
+    private long recordFriendship(byte type, long userId, long friendId) {
+        return record(out -> {
+            out.writeByte(type);
+            out.writeLong(userId);
+            out.writeLong(friendId);
+        });
+    }
+
+    // см. Journal.changeLock(): берется до блокировок сущностей
+    private void beginChange() {
+        if (journal != null) {
+            journal.changeLock().lock();
+        }
+    }
+
+    private void endChange() {
+        if (journal != null) {
+            journal.changeLock().unlock();
+        }
+    }
+
+    private void awaitRecord(long number) {
+        if (journal != null && number > 0) {
+            journal.await(number);
+        }
+    }
+
+    private void readSnapshot(DataInput in) throws IOException {
+        id.set(in.readLong());
+        while (in.readBoolean()) {
+            User user = readUser(in);
+            user.setFriends(new GraphFriends(friendGraph, user.getId()));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                friendGraph.add(user.getId(), in.readLong());
+            }
+            users.put(user.getId(), user);
+        }
+    }
+
+    /*
+     * Снимок пишется без остановки изменений: строка пользователя могла попасть в снимок со связью
+     * с другом, а сам друг - исчезнуть раньше, чем до него дошел снимок. Тогда его USER_REMOVE
+     * не найдет обратной связи, поэтому после восстановления связи с удаленными снимаются отдельно.
+     */
+    private void dropRemovedFriends() {
+        for (long userId : users.keySet()) {
+            for (long friendId : friendGraph.getFriends(userId)) {
+                if (!users.containsKey(friendId)) {
+                    friendGraph.remove(userId, friendId);
+                }
+            }
+        }
+    }
+
+    // записи проигрываются поверх снимка, который мог уже их учесть, поэтому каждая идемпотентна
+    private void replay(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case USER_PUT: {
+                User user = readUser(in);
+                user.setFriends(new GraphFriends(friendGraph, user.getId()));
+                users.put(user.getId(), user);
+                id.accumulateAndGet(user.getId() + 1, Math::max);
+                break;
+            }
+            case USER_REMOVE: {
+                long userId = in.readLong();
+                users.remove(userId);
+                for (long friendId : friendGraph.getFriends(userId)) {
+                    friendGraph.remove(userId, friendId);
+                    friendGraph.remove(friendId, userId);
+                }
+                break;
+            }
+            case FRIEND_ADD:
+            case FRIEND_REMOVE: {
+                User user = users.get(in.readLong());
+                User friend = users.get(in.readLong());
+                if (user == null || friend == null) {
+                    break;
+                }
+                if (type == FRIEND_ADD) {
+                    friendGraph.add(user.getId(), friend.getId());
+                    friendGraph.add(friend.getId(), user.getId());
+                } else {
+                    friendGraph.remove(user.getId(), friend.getId());
+                    friendGraph.remove(friend.getId(), user.getId());
+                }
+                break;
+            }
+            default:
+                throw new IOException("Неизвестный тип записи журнала пользователей: " + type);
+        }
+    }
+
+    private static void writeUser(DataOutput out, User user) throws IOException {
+        out.writeLong(user.getId());
+        Journal.writeString(out, user.getName());
+        Journal.writeString(out, user.getLogin());
+        Journal.writeDate(out, user.getBirthday());
+        Journal.writeString(out, user.getEmail());
+    }
+
+    private static User readUser(DataInput in) throws IOException {
+        return User.builder()
+                .id(in.readLong())
+                .name(Journal.readString(in))
+                .login(Journal.readString(in))
+                .birthday(Journal.readDate(in))
+                .email(Journal.readString(in))
+                .build();
     }
 }
@@ -0,0 +1,300 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.StripedLocks;
+import ru.yandex.practicum.filmorate.storage.offheap.MappedRegion;
+import ru.yandex.practicum.filmorate.storage.offheap.MappedStrings;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*
+ * Хранилище пользователей вне кучи: запись фиксированной длины по адресу id * RECORD_SIZE
+ * в отображенном файле и куча строк рядом. Дружба хранится в FriendGraph на примитивных массивах.
+ * Объекты User собираются только на выходе из хранилища.
+ */
+@Component
+@Slf4j
+public class OffHeapUserStorage implements UserStorage {
+    private static final int RECORD_SIZE = 64;
+    private static final int NAME = 8;
+    private static final int LOGIN = 16;
+    private static final int EMAIL = 24;
+    private static final int BIRTHDAY = 32;
+    private static final int FLAGS = 40;
+    private static final int LIVE = 1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final MappedRegion records;
+    private final MappedStrings strings;
+    private final FriendGraph friendGraph = new FriendGraph();
+    private final StripedLocks locks = new StripedLocks();
+    private final AtomicLong id = new AtomicLong(1);
+
+    public OffHeapUserStorage(@Value("${filmorate.offheap.dir:./db/offheap}") String directory) {
+        Path dir = Path.of(directory);
+        records = new MappedRegion(dir.resolve("users.records"));
+        strings = new MappedStrings(new MappedRegion(dir.resolve("users.strings")));
+    }
+
+    @Override
+    public User addUser(User user) throws DataExistException, ValidationException {
+        if (isLive(user.getId())) {
+            log.debug("Попытка создать юзера, который уже существует");
+            throw new DataExistException("Такой пользователь уже существует.");
+        }
+        insert(user);
+        log.debug("Новый пользователь {} добавлен с ID {}", user.getLogin(), user.getId());
+        return user;
+    }
+
+    @Override
+    public void addUsers(List<User> users) {
+        users.forEach(this::insert);
+        log.debug("Добавлено пользователей: {}", users.size());
+    }
+
+    @Override
+    public User updateUser(User user) throws DataExistException, ValidationException {
+        locks.lock(user.getId());
+        try {
+            if (!isLive(user.getId())) {
+                log.debug("Попытка обновить несуществующего пользователя");
+                throw new DataExistException("Такой пользователь не существует.");
+            }
+            writeRecord(user);
+            user.setFriends(friendsOf(user.getId()));
+        } finally {
+            locks.unlock(user.getId());
+        }
+        log.debug("Данные пользователя {} обновлены", user.getLogin());
+        return user;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        forEachUser(users::add);
+        return users;
+    }
+
+    @Override
+    public List<User> getUsers(long after, int limit) {
+        List<User> users = new ArrayList<>();
+        long last = id.get();
+        for (long userId = Math.max(after + 1, 1); userId < last && users.size() < limit; userId++) {
+            User user = readUser(userId);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        long last = id.get();
+        for (long userId = 1; userId < last; userId++) {
+            User user = readUser(userId);
+            if (user != null) {
+                action.accept(user);
+            }
+        }
+    }
+
+    @Override
+    public User getUserById(long id) throws DataExistException {
+        User user = readUser(id);
+        if (user == null) {
+            log.debug("Попытка получить пользователя по несуществуемому ID.");
+            throw new DataExistException("Пользователь с ID " + id + " не существует.");
+        }
+        return user;
+    }
+
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        return ids.stream()
+                .map(this::readUser)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(this::isLive)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean exists(long id) {
+        return isLive(id);
+    }
+
+    @Override
+    public void removeUserById(long id) throws DataExistException {
+        locks.lock(id);
+        try {
+            if (!isLive(id)) {
+                log.debug("Попытка удалить пользователя с несуществуеющим ID.");
+                throw new DataExistException("Пользователь с ID " + id + " не существует.");
+            }
+            records.putInt(id * RECORD_SIZE + FLAGS, 0);
+        } finally {
+            locks.unlock(id);
+        }
+        for (long friendId : friendGraph.getFriends(id)) {
+            locks.lock(id, friendId);
+            try {
+                friendGraph.remove(id, friendId);
+                friendGraph.remove(friendId, id);
+            } finally {
+                locks.unlock(id, friendId);
+            }
+        }
+    }
+
+    @Override
+    public void addFriend(long userId, long friendId) throws DataExistException {
+        locks.lock(userId, friendId);
+        try {
+            checkExists(userId);
+            checkExists(friendId);
+            if (friendGraph.contains(userId, friendId)) {
+                log.debug("Попытка повторно добавить друга c ID " + friendId + " в друзья к пользователю " +
+                        "с ID " + userId + ".");
+                throw new DataExistException("у пользователя с ID: " + userId + " уже есть друг с ID: "
+                        + friendId);
+            }
+            friendGraph.add(userId, friendId);
+            friendGraph.add(friendId, userId);
+        } finally {
+            locks.unlock(userId, friendId);
+        }
+        log.debug("Пользователь с ID: " + userId + " добавил в друзья друга с ID: " + friendId);
+    }
+
+    @Override
+    public List<User> getAllFriends(long id) throws DataExistException {
+        checkExists(id);
+        return toUsers(friendGraph.getFriends(id));
+    }
+
+    @Override
+    public List<User> getCommonFriends(long id, long otherId) throws DataExistException {
+        checkExists(id);
+        checkExists(otherId);
+        return toUsers(friendGraph.getCommonFriends(id, otherId));
+    }
+
+    @Override
+    public void removeFriend(long userId, long friendId) throws DataExistException {
+        locks.lock(userId, friendId);
+        try {
+            checkExists(userId);
+            checkExists(friendId);
+            if (!friendGraph.contains(userId, friendId)) {
+                log.debug("Попытка удалить друга c ID " + friendId + ", который не был добавлен в друзья " +
+                        "к пользователю с ID " + userId + ".");
+                throw new DataExistException("Пользователь с ID: " + userId + " еще не добавил друга с ID: "
+                        + friendId);
+            }
+            friendGraph.remove(userId, friendId);
+            friendGraph.remove(friendId, userId);
+        } finally {
+            locks.unlock(userId, friendId);
+        }
+        log.debug("Пользователь с ID: " + userId + " удалил из друзей друга с ID: " + friendId);
+    }
+
+    @PreDestroy
+    public void close() {
+        records.close();
+        strings.close();
+    }
+
+    private void insert(User user) {
+        user.setId(id.getAndIncrement());
+        locks.lock(user.getId());
+        try {
+            writeRecord(user);
+        } finally {
+            locks.unlock(user.getId());
+        }
+        user.setFriends(new TreeSet<>());
+    }
+
+    private void writeRecord(User user) {
+        long at = user.getId() * RECORD_SIZE;
+        records.ensure(at + RECORD_SIZE);
+        records.putLong(at, user.getId());
+        records.putLong(at + NAME, strings.write(user.getName()));
+        records.putLong(at + LOGIN, strings.write(user.getLogin()));
+        records.putLong(at + EMAIL, strings.write(user.getEmail()));
+        records.putLong(at + BIRTHDAY, user.getBirthday() == null ? NO_DATE : user.getBirthday().toEpochDay());
+        records.putInt(at + FLAGS, LIVE);
+    }
+
+    private User readUser(long userId) {
+        locks.lock(userId);
+        try {
+            if (!isLive(userId)) {
+                return null;
+            }
+            long at = userId * RECORD_SIZE;
+            long birthday = records.getLong(at + BIRTHDAY);
+            return User.builder()
+                    .id(userId)
+                    .name(strings.read(records.getLong(at + NAME)))
+                    .login(strings.read(records.getLong(at + LOGIN)))
+                    .email(strings.read(records.getLong(at + EMAIL)))
+                    .birthday(birthday == NO_DATE ? null : LocalDate.ofEpochDay(birthday))
+                    .friends(friendsOf(userId))
+                    .build();
+        } finally {
+            locks.unlock(userId);
+        }
+    }
+
+    private Set<Long> friendsOf(long userId) {
+        Set<Long> friends = new TreeSet<>();
+        for (long friendId : friendGraph.getFriends(userId)) {
+            friends.add(friendId);
+        }
+        return friends;
+    }
+
+    private List<User> toUsers(long[] ids) {
+        List<User> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            User user = readUser(id);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+
+    private void checkExists(long userId) throws DataExistException {
+        if (!isLive(userId)) {
+            log.debug("Попытка получить пользователя по несуществуемому ID.");
+            throw new DataExistException("Пользователь с ID " + userId + " не существует.");
+        }
+    }
+
+    private boolean isLive(long userId) {
+        long at = userId * RECORD_SIZE;
+        return userId > 0 && userId < id.get() && records.contains(at) && records.getInt(at + FLAGS) == LIVE;
+    }
+}
@@ -0,0 +1,263 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.StripedLocks;
+import ru.yandex.practicum.filmorate.storage.StripedVersions;
+import ru.yandex.practicum.filmorate.storage.Transactions;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*
+ * Хранилище пользователей из двух уровней, устроенное так же, как TieredFilmStorage.
+ * В базе дружба односторонняя (подписка), поэтому в памяти хранится направленный граф:
+ * friends - на кого подписан пользователь, followers - обратные ребра для удаления пользователя.
+ */
+@Component
+@Slf4j
+public class TieredUserStorage implements UserStorage {
+    private final UserDbStorage db;
+    private final NavigableMap<Long, User> users = new ConcurrentSkipListMap<>();
+    private final FriendGraph friends = new FriendGraph();
+    private final FriendGraph followers = new FriendGraph();
+    private final StripedLocks locks = new StripedLocks();
+    private final StripedVersions versions = new StripedVersions();
+    private final boolean enabled;
+    private volatile boolean warm;
+
+    public TieredUserStorage(UserDbStorage db, @Value("${filmorate.storage.tiered.enabled:false}") boolean enabled) {
+        this.db = db;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        db.forEachUser(this::load);
+        db.forEachFriendship(this::follow);
+        warm = true;
+        log.info("Пользователи загружены в память: {} за {} мс", users.size(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public User addUser(User user) throws DataExistException, ValidationException {
+        User added = db.addUser(user);
+        afterCommit(() -> versions.change(added.getId(), () -> load(added)));
+        return added;
+    }
+
+    @Override
+    public void addUsers(List<User> users) {
+        db.addUsers(users);
+        afterCommit(() -> users.forEach(user -> versions.change(user.getId(), () -> load(user))));
+    }
+
+    @Override
+    public User updateUser(User user) throws DataExistException, ValidationException {
+        User updated = db.updateUser(user);
+        afterCommit(() -> versions.change(updated.getId(), () -> load(updated)));
+        return updated;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        if (!warm) {
+            return db.getAllUsers();
+        }
+        return users.values().stream()
+                .map(this::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<User> getUsers(long after, int limit) {
+        if (!warm) {
+            return db.getUsers(after, limit);
+        }
+        return users.tailMap(after, false).values().stream()
+                .limit(limit)
+                .map(this::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        if (warm) {
+            users.values().forEach(user -> action.accept(copy(user)));
+        } else {
+            db.forEachUser(action);
+        }
+    }
+
+    @Override
+    public User getUserById(long id) {
+        User user = warm ? users.get(id) : null;
+        if (user != null) {
+            return copy(user);
+        }
+        long version = versions.get(id);
+        User loaded = db.getUserById(id);
+        if (loaded != null && enabled) {
+            versions.loadIfUnchanged(id, version, () -> load(loaded));
+        }
+        return loaded;
+    }
+
+    // устроено так же, как TieredFilmStorage.getFilmsByIds
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        if (!warm) {
+            return db.getUsersByIds(ids);
+        }
+        Map<Long, User> found = new HashMap<>();
+        for (long id : ids) {
+            User user = users.get(id);
+            if (user != null) {
+                found.put(id, copy(user));
+            }
+        }
+        List<Long> missed = ids.stream()
+                .filter(id -> !found.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList());
+        if (!missed.isEmpty()) {
+            Map<Long, Long> seen = new HashMap<>();
+            missed.forEach(id -> seen.put(id, versions.get(id)));
+            for (User user : db.getUsersByIds(missed)) {
+                versions.loadIfUnchanged(user.getId(), seen.get(user.getId()), () -> load(user));
+                found.put(user.getId(), user);
+            }
+        }
+        return ids.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (!warm) {
+            return db.findExistingIds(ids);
+        }
+        Set<Long> existing = ids.stream()
+                .filter(users::containsKey)
+                .collect(Collectors.toSet());
+        List<Long> missed = ids.stream()
+                .filter(id -> !existing.contains(id))
+                .collect(Collectors.toList());
+        if (!missed.isEmpty()) {
+            existing.addAll(db.findExistingIds(missed));
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean exists(long id) {
+        return warm && users.containsKey(id) || db.exists(id);
+    }
+
+    @Override
+    public void removeUserById(long id) throws DataExistException {
+        db.removeUserById(id);
+        afterCommit(() -> {
+            versions.change(id, () -> users.remove(id));
+            for (long friendId : friends.getFriends(id)) {
+                unfollow(id, friendId);
+            }
+            for (long followerId : followers.getFriends(id)) {
+                unfollow(followerId, id);
+            }
+        });
+    }
+
+    @Override
+    public void addFriend(long userId, long friendId) throws DataExistException {
+        db.addFriend(userId, friendId);
+        afterCommit(() -> follow(userId, friendId));
+    }
+
+    @Override
+    public List<User> getAllFriends(long id) throws DataExistException {
+        if (!warm) {
+            return db.getAllFriends(id);
+        }
+        if (!exists(id)) {
+            log.info("Пользователь с id {} не найден ", id);
+            throw new DataExistException("Такой пользователь не существует.");
+        }
+        return toUsers(friends.getFriends(id));
+    }
+
+    @Override
+    public List<User> getCommonFriends(long id, long otherId) throws DataExistException {
+        if (!warm) {
+            return db.getCommonFriends(id, otherId);
+        }
+        return toUsers(friends.getCommonFriends(id, otherId));
+    }
+
+    @Override
+    public void removeFriend(long userId, long friendId) throws DataExistException {
+        db.removeFriend(userId, friendId);
+        afterCommit(() -> unfollow(userId, friendId));
+    }
+
+    private void load(User user) {
+        users.put(user.getId(), copy(user));
+    }
+
+    private void follow(long userId, long friendId) {
+        locks.lock(userId, friendId);
+        try {
+            friends.add(userId, friendId);
+            followers.add(friendId, userId);
+        } finally {
+            locks.unlock(userId, friendId);
+        }
+    }
+
+    private void unfollow(long userId, long friendId) {
+        locks.lock(userId, friendId);
+        try {
+            friends.remove(userId, friendId);
+            followers.remove(friendId, userId);
+        } finally {
+            locks.unlock(userId, friendId);
+        }
+    }
+
+    private List<User> toUsers(long[] ids) {
+        List<User> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            User user = users.get(id);
+            if (user != null) {
+                result.add(copy(user));
+            }
+        }
+        return result;
+    }
+
+    private User copy(User user) {
+        return user.toBuilder()
+                .friends(user.getFriends() == null ? new TreeSet<>() : new TreeSet<>(user.getFriends()))
+                .build();
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!enabled) {
+            return;
+        }
+        Transactions.afterCommit(action);
+    }
+}
@@ -1,85 +1,213 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.LiveIds;
+import ru.yandex.practicum.filmorate.storage.Transactions;
+import ru.yandex.practicum.filmorate.storage.mapper.UserRowMapper;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @Slf4j
 public class UserDbStorage implements UserStorage {
 
     private final JdbcTemplate jdbcTemplate;
+    private final UserRowMapper userRowMapper;
+    private final SimpleJdbcInsert userInsert;
+    private final int batchSize;
+    private final CacheManager cacheManager;
+    private volatile LiveIds liveIds = new LiveIds();
+
+    private static final String USER_SELECT = "select " + UserRowMapper.COLUMNS + " from USER_TABLE ";
+    private static final int STREAM_FETCH_SIZE = 500;
 
-    public UserDbStorage(JdbcTemplate jdbcTemplate) {
+    public UserDbStorage(JdbcTemplate jdbcTemplate, UserRowMapper userRowMapper,
+                         @Value("${filmorate.bulk.batch-size:1000}") int batchSize, CacheManager cacheManager) {
         this.jdbcTemplate = jdbcTemplate;
+        this.userRowMapper = userRowMapper;
+        this.userInsert = new SimpleJdbcInsert(jdbcTemplate);
+        this.userInsert.withTableName("user_table")
+                .usingColumns("name", "login", "birthday", "email")
+                .usingGeneratedKeyColumns("user_id")
+                .withoutTableColumnMetaDataAccess();
+        this.userInsert.compile();
+        this.batchSize = batchSize;
+        this.cacheManager = cacheManager;
     }
+
+    @PostConstruct
+    public void reloadLiveIds() {
+        LiveIds ids = new LiveIds();
+        jdbcTemplate.query("select USER_ID from USER_TABLE", (RowCallbackHandler) rs -> ids.add(rs.getLong(1)));
+        liveIds = ids;
+        log.debug("Загружено id пользователей: {}", ids.size());
+    }
+
     @Override
     public User addUser(User user) throws DataExistException, ValidationException {
-        if (getUserById(user.getId()) != null) {
+        if (exists(user.getId())) {
             log.debug("Попытка создать юзера, который уже существует");
             throw new DataExistException("Такой пользователь уже существует.");
         }
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName("user_table")
-                .usingGeneratedKeyColumns("user_id");
-        long id = simpleJdbcInsert.executeAndReturnKey(user.toMap()).longValue();
+        long id = userInsert.executeAndReturnKey(user.toMap()).longValue();
         user.setId(id);
+        Transactions.afterCommit(() -> liveIds.add(id));
         log.debug("Данные пользователя {} добавлены, id {}", user.getLogin(), user.getId());
         return user;
     }
 
 
+    @Override
+    public void addUsers(List<User> users) {
+        String sqlQuery = "insert into USER_TABLE(NAME, LOGIN, BIRTHDAY, EMAIL) values (?, ?, ?, ?)";
+        for (int from = 0; from < users.size(); from += batchSize) {
+            List<User> batch = users.subList(from, Math.min(from + batchSize, users.size()));
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                try (PreparedStatement ps = con.prepareStatement(sqlQuery, new String[]{"USER_ID"})) {
+                    for (User user : batch) {
+                        ps.setString(1, user.getName());
+                        ps.setString(2, user.getLogin());
+                        ps.setObject(3, user.getBirthday());
+                        ps.setString(4, user.getEmail());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (User user : batch) {
+                            keys.next();
+                            user.setId(keys.getLong(1));
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        Transactions.afterCommit(() -> users.forEach(user -> liveIds.add(user.getId())));
+        log.debug("Добавлено пользователей: {}", users.size());
+    }
+
     @Override
     public User updateUser(User user) throws DataExistException, ValidationException {
-        if (getUserById(user.getId()) == null) {
+        if (!exists(user.getId())) {
             log.debug("Попытка обновить несуществующего пользователя");
             throw new DataExistException("Такой пользователь не существует.");
         }
         String sqlQuery = "update user_table set name = ?, login = ?, birthday = ?, email = ? where USER_ID = ?";
         jdbcTemplate.update(sqlQuery, user.getName(), user.getLogin(), user.getBirthday(), user.getEmail(),
                 user.getId());
+        Transactions.afterCommit(() -> evictUser(user.getId()));
         log.debug("Данные пользователя {} с id {} обновлены", user.getLogin(), user.getId());
         return user;
     }
 
     @Override
     public List<User> getAllUsers() {
-        String sqlQuery = "select* from user_table";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> User.builder()
-                        .id(rs.getLong("user_id"))
-                .name(rs.getString("name"))
-                .login(rs.getString("login"))
-                .birthday(Objects.requireNonNull(rs.getDate("birthday")).toLocalDate())
-                .email(rs.getString("email"))
-                .build());
+        String sqlQuery = USER_SELECT + "order by USER_ID";
+        return jdbcTemplate.query(sqlQuery, userRowMapper);
+    }
+
+    @Override
+    public List<User> getUsers(long after, int limit) {
+        String sqlQuery = USER_SELECT + "where USER_ID > ? order by USER_ID limit ?";
+        return jdbcTemplate.query(sqlQuery, userRowMapper, after, limit);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(USER_SELECT + "order by USER_ID",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) rs -> action.accept(userRowMapper.mapRow(rs, 0)));
+    }
+
+    // все связи дружбы одним курсором, для прогрева кэширующих хранилищ
+    public void forEachFriendship(BiConsumer<Long, Long> action) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select USER_ID, FRIEND_ID from FRIEND_TABLE",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) rs -> action.accept(rs.getLong(1), rs.getLong(2)));
     }
 
     @Override
+    @Cacheable(cacheNames = "users", unless = "#result == null")
     public User getUserById(long id) {
-        String sqlQuery = "select* from user_table where user_id = ?";
-        SqlRowSet userRow = jdbcTemplate.queryForRowSet(sqlQuery, id);
-        if (userRow.next()) {
-            return User.builder()
-                    .id(userRow.getLong("user_id"))
-                    .name(userRow.getString("name"))
-                    .login(userRow.getString("login"))
-                    .birthday(Objects.requireNonNull(userRow.getDate("birthday")).toLocalDate())
-                    .email(userRow.getString("email"))
-                    .build();
+        String sqlQuery = USER_SELECT + "where USER_ID = ?";
+        List<User> users = jdbcTemplate.query(sqlQuery, userRowMapper, id);
+        if (users.isEmpty()) {
+            return null;
         }
-        return null;
+        return users.get(0);
+    }
+
+    // один запрос с in-списком, результат в порядке входных id
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<Long> distinct = new LinkedHashSet<>(ids);
+        String sqlQuery = USER_SELECT + "where USER_ID in (" +
+                String.join(",", Collections.nCopies(distinct.size(), "?")) + ")";
+        Map<Long, User> users = new HashMap<>();
+        for (User user : jdbcTemplate.query(sqlQuery, userRowMapper, distinct.toArray())) {
+            users.put(user.getId(), user);
+        }
+        return ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new HashSet<>();
+        }
+        String sqlQuery = "select USER_ID from USER_TABLE where USER_ID in (" +
+                String.join(",", Collections.nCopies(ids.size(), "?")) + ")";
+        return new HashSet<>(jdbcTemplate.queryForList(sqlQuery, Long.class, ids.toArray()));
+    }
+
+    // устроено так же, как FilmDbStorage.exists
+    @Override
+    public boolean exists(long id) {
+        if (id <= 0) {
+            return false;
+        }
+        if (liveIds.contains(id)) {
+            return true;
+        }
+        return !jdbcTemplate.queryForList("select 1 from USER_TABLE where USER_ID = ?", Integer.class, id).isEmpty();
     }
 
     @Override
     public void removeUserById(long id) throws DataExistException {
         String sqlQuery = "delete from user_table where user_id = ?";
         if (jdbcTemplate.update(sqlQuery, id) > 0) {
+            liveIds.remove(id);
+            Transactions.afterCommit(() -> evictUser(id));
             log.info("Пользователь с id {} удален.", id);
         } else {
             log.info("Пользователь с id {} не найден ", id);
@@ -89,42 +217,30 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public void addFriend(long userId, long friendId) throws DataExistException {
-        if (getUserById(userId) == null || getUserById(friendId) == null) {
+        if (!exists(userId) || !exists(friendId)) {
             log.info("Пользователь с id {} или друг с id {} не найден ", userId, friendId);
             throw new DataExistException("Такой пользователь или друг не существует.");
         }
-        String sqlQuery = "insert into friend_table (USER_ID, FRIEND_ID) values (?, ?)";
+        String sqlQuery = "merge into FRIEND_TABLE key (USER_ID, FRIEND_ID) values (?, ?)";
         jdbcTemplate.update(sqlQuery, userId, friendId);
     }
 
     @Override
     public List<User> getAllFriends(long id) throws DataExistException {
-        if (getUserById(id) == null) {
+        if (!exists(id)) {
             log.info("Пользователь с id {} не найден ", id);
             throw new DataExistException("Такой пользователь не существует.");
         }
-        String sqlQuery = "select* from USER_TABLE UT RIGHT JOIN FRIEND_TABLE FT on UT.USER_ID = FT.FRIEND_ID " +
-                "where FT.USER_ID = ?";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> User.builder()
-                .id(rs.getLong("user_id"))
-                .name(rs.getString("name"))
-                .login(rs.getString("login"))
-                .birthday(Objects.requireNonNull(rs.getDate("birthday")).toLocalDate())
-                .email(rs.getString("email"))
-                .build(), id);
+        String sqlQuery = USER_SELECT + "where USER_ID in (select FRIEND_ID from FRIEND_TABLE where USER_ID = ?) " +
+                "order by USER_ID";
+        return jdbcTemplate.query(sqlQuery, userRowMapper, id);
     }
 
     @Override
     public List<User> getCommonFriends(long id, long otherId) {
-        String sqlQuery = "SELECT* FROM user_table WHERE user_id IN (SELECT friend_id FROM friend_table " +
-                "WHERE user_id = ? OR user_id = ? GROUP BY friend_id HAVING COUNT(user_id) > 1);";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> User.builder()
-                .id(rs.getLong("user_id"))
-                .name(rs.getString("name"))
-                .login(rs.getString("login"))
-                .birthday(Objects.requireNonNull(rs.getDate("birthday")).toLocalDate())
-                .email(rs.getString("email"))
-                .build(), id, otherId);
+        String sqlQuery = USER_SELECT + "where USER_ID in (select FRIEND_ID from FRIEND_TABLE " +
+                "where USER_ID = ? OR USER_ID = ? group by FRIEND_ID having count(USER_ID) > 1) order by USER_ID";
+        return jdbcTemplate.query(sqlQuery, userRowMapper, id, otherId);
     }
 
     @Override
@@ -137,4 +253,12 @@ public class UserDbStorage implements UserStorage {
             throw new DataExistException("Такой пользователь или друг не существует.");
         }
     }
+
+    // кэш чистится после коммита, как в FilmDbStorage
+    private void evictUser(long id) {
+        Cache cache = cacheManager.getCache("users");
+        if (cache != null) {
+            cache.evict(id);
+        }
+    }
 }
@@ -4,18 +4,33 @@ import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface UserStorage {
     User addUser(User user) throws DataExistException, ValidationException;
 
+    void addUsers(List<User> users);
+
     User updateUser(User user) throws DataExistException, ValidationException;
 
     List<User> getAllUsers();
 
+    List<User> getUsers(long after, int limit);
+
+    void forEachUser(Consumer<User> action);
+
     User getUserById(long id) throws DataExistException;
 
+    List<User> getUsersByIds(List<Long> ids);
+
+    Set<Long> findExistingIds(Collection<Long> ids);
+
+    boolean exists(long id);
+
     void removeUserById(long id) throws DataExistException;
 
     void addFriend(long userId, long friendId) throws DataExistException;
@@ -0,0 +1,25 @@
+-- Версия 1: приводит базы, созданные до ключей и счетчика лайков, к schema.sql
+
+-- Базы, созданные до появления ключей: убираем дубли и пустые связи, затем добавляем ключи
+DELETE FROM film_genre WHERE film_id IS NULL OR genre_id IS NULL
+    OR _ROWID_ NOT IN (SELECT MIN(_ROWID_) FROM film_genre GROUP BY film_id, genre_id);
+ALTER TABLE film_genre ALTER COLUMN film_id SET NOT NULL;
+ALTER TABLE film_genre ALTER COLUMN genre_id SET NOT NULL;
+ALTER TABLE film_genre ADD CONSTRAINT IF NOT EXISTS film_genre_pk PRIMARY KEY (film_id, genre_id);
+
+DELETE FROM friend_table WHERE user_id IS NULL OR friend_id IS NULL
+    OR _ROWID_ NOT IN (SELECT MIN(_ROWID_) FROM friend_table GROUP BY user_id, friend_id);
+ALTER TABLE friend_table ALTER COLUMN user_id SET NOT NULL;
+ALTER TABLE friend_table ALTER COLUMN friend_id SET NOT NULL;
+ALTER TABLE friend_table ADD CONSTRAINT IF NOT EXISTS friend_table_pk PRIMARY KEY (user_id, friend_id);
+
+DELETE FROM film_user WHERE film_id IS NULL OR user_id IS NULL
+    OR _ROWID_ NOT IN (SELECT MIN(_ROWID_) FROM film_user GROUP BY film_id, user_id);
+ALTER TABLE film_user ALTER COLUMN film_id SET NOT NULL;
+ALTER TABLE film_user ALTER COLUMN user_id SET NOT NULL;
+ALTER TABLE film_user ADD CONSTRAINT IF NOT EXISTS film_user_pk PRIMARY KEY (film_id, user_id);
+
+-- Счетчик лайков в film_table: для старых баз добавляем колонку и заполняем ее по film_user
+ALTER TABLE film_table ADD COLUMN IF NOT EXISTS likes_count INTEGER DEFAULT 0 NOT NULL;
+UPDATE film_table f SET likes_count = (SELECT COUNT(*) FROM film_user u WHERE u.film_id = f.film_id)
+    WHERE likes_count = 0 AND EXISTS (SELECT 1 FROM film_user u WHERE u.film_id = f.film_id);
@@ -9,7 +9,8 @@ create table if not exists film_table (
                                           description VARCHAR(200),
                                           release_date DATE,
                                           film_duration INTEGER,
-                                          mpa_id INTEGER REFERENCES mpa(mpa_id)
+                                          mpa_id INTEGER REFERENCES mpa(mpa_id),
+                                          likes_count INTEGER DEFAULT 0 NOT NULL
 );
 
 CREATE TABLE if not exists genre (
@@ -18,8 +19,9 @@ CREATE TABLE if not exists genre (
 );
 
 CREATE TABLE if not exists film_genre (
-                                          film_id LONG REFERENCES film_table(film_id),
-                                          genre_id INTEGER REFERENCES genre(genre_id)
+                                          film_id LONG NOT NULL REFERENCES film_table(film_id),
+                                          genre_id INTEGER NOT NULL REFERENCES genre(genre_id),
+                                          CONSTRAINT film_genre_pk PRIMARY KEY (film_id, genre_id)
 );
 
 CREATE TABLE if not exists user_table (
@@ -31,11 +33,24 @@ CREATE TABLE if not exists user_table (
 );
 
 CREATE TABLE if not exists friend_table (
-                                            user_id LONG REFERENCES user_table(user_id),
-                                            friend_id LONG REFERENCES user_table(user_id)
+                                            user_id LONG NOT NULL REFERENCES user_table(user_id),
+                                            friend_id LONG NOT NULL REFERENCES user_table(user_id),
+                                            CONSTRAINT friend_table_pk PRIMARY KEY (user_id, friend_id)
 );
 
 CREATE TABLE if not exists film_user (
-                                         film_id LONG REFERENCES film_table(film_id),
-                                         user_id LONG REFERENCES user_table(user_id)
-);
\ No newline at end of file
+                                         film_id LONG NOT NULL REFERENCES film_table(film_id),
+                                         user_id LONG NOT NULL REFERENCES user_table(user_id),
+                                         CONSTRAINT film_user_pk PRIMARY KEY (film_id, user_id)
+);
+
+-- Обратные индексы: жанр -> фильмы, друг -> пользователи, пользователь -> лайкнутые фильмы
+CREATE INDEX IF NOT EXISTS film_genre_genre_idx ON film_genre (genre_id, film_id);
+CREATE INDEX IF NOT EXISTS friend_table_friend_idx ON friend_table (friend_id, user_id);
+CREATE INDEX IF NOT EXISTS film_user_user_idx ON film_user (user_id, film_id);
+
+-- Примененные миграции из resources/migration: каждая выполняется один раз, см. SchemaInitializer
+CREATE TABLE if not exists schema_version (
+                                              version INTEGER PRIMARY KEY,
+                                              applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
@@ -7,24 +7,45 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.SchemaInitializer;
 import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounter;
+import ru.yandex.practicum.filmorate.storage.film.TieredFilmStorage;
 import ru.yandex.practicum.filmorate.storage.genre.GenreDbStorage;
 import ru.yandex.practicum.filmorate.storage.mpa.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.user.TieredUserStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @SpringBootTest
@@ -33,10 +54,17 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 class FilmoRateApplicationTests {
 	private final UserDbStorage userStorage;
 	private final FilmDbStorage filmDbStorage;
+	private final GenreDbStorage genreStorage;
 	private final JdbcTemplate jdbcTemplate;
+	private final CacheManager cacheManager;
+	private final LikeCounter likeCounter;
+	private final PlatformTransactionManager transactionManager;
+	private final SchemaInitializer schemaInitializer;
+	private final FilmService filmService;
 
 	@AfterEach
 	void clearDB() {
+		likeCounter.flush();
 		jdbcTemplate.update("DELETE FROM FILM_USER");
 		jdbcTemplate.update("DELETE FROM FILM_GENRE");
 		jdbcTemplate.update("DELETE FROM FRIEND_TABLE");
@@ -44,6 +72,9 @@ class FilmoRateApplicationTests {
 		jdbcTemplate.update("DELETE FROM FILM_TABLE");
 		jdbcTemplate.update("ALTER TABLE USER_TABLE ALTER COLUMN USER_ID RESTART WITH 1");
 		jdbcTemplate.update("ALTER TABLE FILM_TABLE ALTER COLUMN FILM_ID RESTART WITH 1");
+		filmDbStorage.rebuildLeaderboard();
+		userStorage.reloadLiveIds();
+		cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
 	}
 
 	private User createUser() {
@@ -224,4 +255,427 @@ class FilmoRateApplicationTests {
 		filmDbStorage.removeLike(1L, 1L);
 		assertEquals(0, filmDbStorage.getFilmById(1).getLikes().size(), "Колличество лайков не корректное");
 	}
+
+	@Test
+	public void getAllFilmsWithGenresAndLikes() throws DataExistException {
+		addUser();
+		Film film = createFilm();
+		film.setGenres(List.of(Genre.builder().id(2).build(), Genre.builder().id(1).build()));
+		filmDbStorage.addFilm(film);
+		filmDbStorage.addFilm(createFilm());
+		filmDbStorage.addLike(1L, 1L);
+		List<Film> films = filmDbStorage.getAllFilms();
+		assertEquals(2, films.size(), "Количество фильмов возвращается некорректное.");
+		assertEquals(List.of(1, 2), List.of(films.get(0).getGenres().get(0).getId(),
+				films.get(0).getGenres().get(1).getId()), "Жанры фильма возвращаются некорректно");
+		assertEquals("G", films.get(0).getMpa().getName(), "Рейтинг фильма возвращается некорректно");
+		assertEquals(1, films.get(0).getLikesCount(), "Колличество лайков не корректное");
+		assertEquals(0, films.get(1).getGenres().size(), "Жанры фильма возвращаются некорректно");
+		assertEquals(0, films.get(1).getLikesCount(), "Колличество лайков не корректное");
+	}
+
+	@Test
+	public void getTopFilms() throws DataExistException {
+		addUser();
+		filmDbStorage.addFilm(createFilm());
+		filmDbStorage.addFilm(createFilm());
+		filmDbStorage.addFilm(createFilm());
+		filmDbStorage.addLike(2L, 1L);
+		List<Film> top = filmDbStorage.getTopFilms(2, null, null);
+		assertEquals(2, top.size(), "Топ фильмов формируется не корректно");
+		assertEquals(2, top.get(0).getId(), "Топ фильмов формируется не корректно");
+		assertEquals(1, top.get(1).getId(), "Топ фильмов формируется не корректно");
+		assertEquals(1, top.get(0).getLikesCount(), "Колличество лайков не корректное");
+	}
+
+	@Test
+	public void getTopFilmsByGenreAndMpa() throws DataExistException {
+		addUser();
+		Film comedy = createFilm();
+		comedy.setGenres(List.of(Genre.builder().id(1).build()));
+		filmDbStorage.addFilm(comedy);
+		Film drama = createFilm();
+		drama.setGenres(List.of(Genre.builder().id(2).build()));
+		drama.setMpa(Mpa.builder().id(4).build());
+		filmDbStorage.addFilm(drama);
+		filmDbStorage.addLike(2L, 1L);
+		assertEquals(2, filmDbStorage.getTopFilms(10, null, null).get(0).getId(),
+				"Топ фильмов формируется не корректно");
+		assertEquals(1, filmDbStorage.getTopFilms(10, 1, null).size(), "Топ по жанру формируется не корректно");
+		assertEquals(1, filmDbStorage.getTopFilms(10, 1, null).get(0).getId(),
+				"Топ по жанру формируется не корректно");
+		assertEquals(2, filmDbStorage.getTopFilms(10, null, 4).get(0).getId(),
+				"Топ по рейтингу формируется не корректно");
+		assertEquals(0, filmDbStorage.getTopFilms(10, 1, 4).size(), "Топ по жанру и рейтингу формируется не корректно");
+		filmDbStorage.removeLike(2L, 1L);
+		filmDbStorage.rebuildLeaderboard();
+		cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+		assertEquals(1, filmDbStorage.getTopFilms(10, null, null).get(0).getId(),
+				"Топ фильмов после перестроения формируется не корректно");
+	}
+
+	@Test
+	public void repeatedLikesAndFriendsAreStoredOnce() throws DataExistException {
+		addFriend();
+		Film film = createFilm();
+		film.setGenres(List.of(Genre.builder().id(1).build(), Genre.builder().id(1).build()));
+		filmDbStorage.addFilm(film);
+		filmDbStorage.addLike(1L, 1L);
+		filmDbStorage.addLike(1L, 1L);
+		userStorage.addFriend(1, 2);
+		assertEquals(1, jdbcTemplate.queryForObject("select count(*) from FILM_USER", Integer.class),
+				"Повторный лайк сохранен дважды");
+		assertEquals(1, jdbcTemplate.queryForObject("select count(*) from FRIEND_TABLE", Integer.class),
+				"Повторный друг сохранен дважды");
+		assertEquals(1, filmDbStorage.getFilmById(1).getGenres().size(), "Жанры фильма сохранены некорректно");
+		assertEquals(1, filmDbStorage.getFilmById(1).getLikesCount(), "Колличество лайков не корректное");
+		filmDbStorage.addFilm(createFilm());
+		filmDbStorage.addLike(2L, 1L);
+		filmDbStorage.addLike(2L, 2L);
+		assertEquals(2, filmDbStorage.getTopFilms(1, null, null).get(0).getId(),
+				"Топ фильмов формируется не корректно");
+	}
+
+	@Test
+	public void referenceDataIsLoadedOnceAndRefreshedOnDemand() throws DataExistException {
+		Film film = createFilm();
+		film.setGenres(List.of(Genre.builder().id(1).build()));
+		filmDbStorage.addFilm(film);
+		assertSame(genreStorage.getGenreById(1), filmDbStorage.getFilmById(1).getGenres().get(0),
+				"Жанр фильма должен браться из справочника");
+		jdbcTemplate.update("MERGE INTO GENRE KEY (GENRE_ID) VALUES (7, 'Вестерн')");
+		assertNull(genreStorage.getGenreById(7), "Справочник жанров обновился без запроса");
+		genreStorage.refresh();
+		assertEquals("Вестерн", genreStorage.getGenreById(7).getName(), "Справочник жанров не обновился");
+		jdbcTemplate.update("DELETE FROM GENRE WHERE GENRE_ID = 7");
+		genreStorage.refresh();
+		assertEquals(6, genreStorage.getAllGenres().size(), "Количество жанров неверное");
+	}
+
+	@Test
+	public void filmCacheIsInvalidatedOnWrites() throws DataExistException {
+		addFilm();
+		addUser();
+		CaffeineCache films = (CaffeineCache) cacheManager.getCache("films");
+		filmDbStorage.getFilmById(1);
+		long hits = films.getNativeCache().stats().hitCount();
+		filmDbStorage.getFilmById(1);
+		assertEquals(hits + 1, films.getNativeCache().stats().hitCount(), "Повторное чтение фильма не из кэша");
+		filmDbStorage.addLike(1L, 1L);
+		assertEquals(1, filmDbStorage.getFilmById(1).getLikesCount(), "Кэш не сброшен после лайка");
+		filmDbStorage.updateFilm(Film.builder()
+				.id(1)
+				.name("Updated Name")
+				.description("Description1")
+				.releaseDate(LocalDate.of(2000, 12,12))
+				.duration(90)
+				.mpa(Mpa.builder().id(3).build())
+				.build());
+		assertEquals("Updated Name", filmDbStorage.getFilmById(1).getName(), "Кэш не сброшен после обновления");
+		filmDbStorage.removeLike(1L, 1L);
+		assertEquals(0, filmDbStorage.getFilmById(1).getLikesCount(), "Кэш не сброшен после удаления лайка");
+		userStorage.getUserById(1);
+		userStorage.removeUserById(1);
+		assertNull(userStorage.getUserById(1), "Кэш не сброшен после удаления пользователя");
+	}
+
+	@Test
+	public void cacheIsEvictedAfterCommit() throws DataExistException {
+		addUser();
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			try {
+				userStorage.updateUser(createUser().toBuilder().id(1).name("Updated").build());
+			} catch (DataExistException e) {
+				throw new IllegalStateException(e);
+			}
+			// чтение из другого соединения до коммита видит старую строку и кладет ее в кэш
+			assertEquals("Name", CompletableFuture.supplyAsync(() -> userStorage.getUserById(1)).join().getName(),
+					"До коммита должна читаться старая строка");
+		});
+		assertEquals("Updated", userStorage.getUserById(1).getName(), "Кэш не сброшен после коммита");
+	}
+
+	@Test
+	public void filmServiceReadsFilmFromCache() throws DataExistException {
+		long id = filmDbStorage.addFilm(createFilm()).getId();
+		assertEquals("FilName", filmService.getFilmById(id).getName(), "Фильм прочитан неверно");
+		// строка меняется мимо хранилища: второе чтение видит старое имя, только если не ходит в базу
+		jdbcTemplate.update("UPDATE FILM_TABLE SET NAME = 'Changed' WHERE FILM_ID = ?", id);
+		assertEquals("FilName", filmService.getFilmById(id).getName(), "Повторное чтение фильма ушло в базу");
+	}
+
+	@Test
+	public void updateFilmGenres() throws DataExistException {
+		Film film = createFilm();
+		film.setGenres(List.of(Genre.builder().id(1).build(), Genre.builder().id(2).build()));
+		filmDbStorage.addFilm(film);
+		Film updated = createFilm();
+		updated.setId(1);
+		updated.setGenres(List.of(Genre.builder().id(3).build(), Genre.builder().id(2).build()));
+		Film response = filmDbStorage.updateFilm(updated);
+		assertEquals(List.of(genreStorage.getGenreById(2), genreStorage.getGenreById(3)), response.getGenres(),
+				"Жанры фильма в ответе некорректные");
+		assertEquals("G", response.getMpa().getName(), "Рейтинг фильма в ответе некорректный");
+		assertEquals(response.getGenres(), filmDbStorage.getFilmById(1).getGenres(),
+				"Жанры фильма после обновления некорректные");
+		updated.setGenres(null);
+		assertEquals(2, filmDbStorage.updateFilm(updated).getGenres().size(),
+				"Жанры фильма не должны меняться, если они не переданы");
+		updated.setGenres(List.of());
+		filmDbStorage.updateFilm(updated);
+		assertEquals(0, filmDbStorage.getFilmById(1).getGenres().size(), "Жанры фильма не удалены");
+	}
+
+	@Test
+	public void getFilmsAndUsersByPages() throws DataExistException {
+		addUser();
+		for (int i = 0; i < 5; i++) {
+			Film film = createFilm();
+			film.setGenres(List.of(Genre.builder().id(1).build()));
+			filmDbStorage.addFilm(film);
+		}
+		filmDbStorage.addLike(3L, 1L);
+		List<Film> page = filmDbStorage.getFilms(0, 2);
+		assertEquals(List.of(1L, 2L), List.of(page.get(0).getId(), page.get(1).getId()),
+				"Первая страница фильмов некорректная");
+		page = filmDbStorage.getFilms(2, 2);
+		assertEquals(List.of(3L, 4L), List.of(page.get(0).getId(), page.get(1).getId()),
+				"Вторая страница фильмов некорректная");
+		assertEquals(1, page.get(0).getLikesCount(), "Колличество лайков не корректное");
+		assertEquals(1, page.get(1).getGenres().size(), "Жанры фильма возвращаются некорректно");
+		assertEquals(1, filmDbStorage.getFilms(4, 2).size(), "Последняя страница фильмов некорректная");
+		assertEquals(0, filmDbStorage.getFilms(5, 2).size(), "Страница после последней должна быть пустой");
+		assertEquals(1, userStorage.getUsers(0, 10).size(), "Страница пользователей некорректная");
+		assertEquals(0, userStorage.getUsers(1, 10).size(), "Страница пользователей некорректная");
+	}
+
+	@Test
+	public void forEachFilmAndUser() throws DataExistException {
+		addUser();
+		for (int i = 0; i < 3; i++) {
+			Film film = createFilm();
+			film.setGenres(List.of(Genre.builder().id(1).build(), Genre.builder().id(2).build()));
+			filmDbStorage.addFilm(film);
+		}
+		filmDbStorage.addLike(2L, 1L);
+		List<Film> films = new ArrayList<>();
+		filmDbStorage.forEachFilm(films::add);
+		assertEquals(List.of(1L, 2L, 3L), films.stream().map(Film::getId).collect(Collectors.toList()),
+				"Выгрузка фильмов некорректная");
+		assertEquals(2, films.get(0).getGenres().size(), "Жанры фильма возвращаются некорректно");
+		assertEquals(1, films.get(1).getLikesCount(), "Колличество лайков не корректное");
+		assertEquals(0, films.get(2).getLikesCount(), "Колличество лайков не корректное");
+		List<User> users = new ArrayList<>();
+		userStorage.forEachUser(users::add);
+		assertEquals(1, users.size(), "Выгрузка пользователей некорректная");
+	}
+
+	@Test
+	public void addFilmsUsersAndLikesInBatches() throws DataExistException {
+		List<User> users = List.of(createUser(), createUser(), createUser());
+		userStorage.addUsers(users);
+		assertEquals(List.of(1L, 2L, 3L), users.stream().map(User::getId).collect(Collectors.toList()),
+				"Идентификаторы пользователей назначены некорректно");
+		List<Film> films = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Film film = createFilm();
+			film.setGenres(List.of(Genre.builder().id(2).build(), Genre.builder().id(1).build()));
+			films.add(film);
+		}
+		filmDbStorage.addFilms(films);
+		assertEquals(List.of(1L, 2L, 3L), films.stream().map(Film::getId).collect(Collectors.toList()),
+				"Идентификаторы фильмов назначены некорректно");
+		assertEquals(2, filmDbStorage.getFilmById(3).getGenres().size(), "Жанры фильма сохранены некорректно");
+		filmDbStorage.addLikes(List.of(
+				FilmLike.builder().filmId(2L).userId(1L).build(),
+				FilmLike.builder().filmId(2L).userId(2L).build(),
+				FilmLike.builder().filmId(2L).userId(2L).build(),
+				FilmLike.builder().filmId(3L).userId(3L).build()));
+		assertEquals(2, filmDbStorage.getFilmById(2).getLikesCount(), "Колличество лайков не корректное");
+		assertEquals(List.of(2L, 3L), filmDbStorage.getTopFilms(2, null, null).stream()
+				.map(Film::getId).collect(Collectors.toList()), "Популярные фильмы возвращаются некорректно");
+		assertEquals(Set.of(1L, 3L), filmDbStorage.findExistingIds(List.of(1L, 3L, 10L)),
+				"Существующие фильмы определены некорректно");
+	}
+
+	@Test
+	public void likesCountIsFlushedAndReconciled() throws DataExistException {
+		addUser();
+		userStorage.addUser(createUser());
+		filmDbStorage.addFilm(createFilm());
+		filmDbStorage.addLike(1L, 1L);
+		assertEquals(1, filmDbStorage.getLikesCount(1), "Колличество лайков не корректное");
+		String countQuery = "select LIKES_COUNT from FILM_TABLE where FILM_ID = 1";
+		likeCounter.flush();
+		assertEquals(1, jdbcTemplate.queryForObject(countQuery, Integer.class), "Счетчик не сохранен");
+		jdbcTemplate.update("insert into FILM_USER(FILM_ID, USER_ID) values (1, 2)");
+		likeCounter.reconcile();
+		assertEquals(2, filmDbStorage.getLikesCount(1), "Счетчик не сверен с лайками");
+		filmDbStorage.rebuildLeaderboard();
+		assertEquals(2, filmDbStorage.getTopFilms(1, null, null).get(0).getLikesCount(),
+				"Рейтинг построен некорректно");
+		assertNull(filmDbStorage.getLikesCount(2), "Счетчик несуществующего фильма");
+		userStorage.addUser(createUser());
+		filmDbStorage.addLike(1L, 3L);
+		likeCounter.reconcile();
+		assertEquals(3, filmDbStorage.getLikesCount(1), "Сверка учла несохраненную дельту дважды");
+		likeCounter.flush();
+		assertEquals(3, jdbcTemplate.queryForObject(countQuery, Integer.class), "Счетчик не сохранен после сверки");
+	}
+
+	@Test
+	public void tieredStorageWarmsUpAndWritesThrough() throws DataExistException {
+		addUser();
+		userStorage.addUser(createUser());
+		filmDbStorage.addFilm(createFilm());
+		userStorage.addFriend(1, 2);
+		TieredFilmStorage films = new TieredFilmStorage(filmDbStorage, true);
+		TieredUserStorage users = new TieredUserStorage(userStorage, true);
+		films.warmUp();
+		users.warmUp();
+		assertEquals(1, films.getAllFilms().size(), "Фильмы не загружены в память");
+		assertEquals(List.of(2L), users.getAllFriends(1).stream().map(User::getId).collect(Collectors.toList()),
+				"Друзья не загружены в память");
+		assertEquals(0, users.getAllFriends(2).size(), "Дружба в памяти должна быть односторонней");
+
+		jdbcTemplate.update("update FILM_TABLE set NAME = 'Changed' where FILM_ID = 1");
+		assertEquals("FilName", films.getFilmById(1).getName(), "Чтение должно обслуживаться из памяти");
+
+		films.addLike(1L, 2L);
+		Film added = films.addFilm(createFilm());
+		users.addFriend(2, 1);
+		assertEquals(1, films.getLikesCount(1), "Лайк не попал в память");
+		assertEquals(1, filmDbStorage.getLikesCount(1), "Лайк не записан в базу");
+		assertEquals("FilName", filmDbStorage.getFilmById(added.getId()).getName(), "Фильм не записан в базу");
+		assertEquals(List.of(1L, 2L), films.getAllFilms().stream().map(Film::getId).collect(Collectors.toList()),
+				"Новый фильм не попал в память");
+		assertEquals(1, userStorage.getAllFriends(2).size(), "Дружба не записана в базу");
+		assertEquals(1, users.getAllFriends(2).size(), "Дружба не попала в память");
+
+		jdbcTemplate.update("insert into FILM_TABLE(NAME, DESCRIPTION, RELEASE_DATE, FILM_DURATION, MPA_ID) " +
+				"values ('Direct', 'Description', '2000-01-01', 90, 1)");
+		assertEquals("Direct", films.getFilmById(3).getName(), "Промах должен догружаться из базы");
+	}
+
+	@Test
+	public void tieredStorageDoesNotResurrectRemovedFilms() throws Exception {
+		TieredFilmStorage films = new TieredFilmStorage(filmDbStorage, true);
+		films.warmUp();
+		int count = 200;
+		for (int i = 0; i < count; i++) {
+			filmDbStorage.addFilm(createFilm());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int t = 0; t < 3; t++) {
+			tasks.add(() -> {
+				for (long id = 1; id <= count; id++) {
+					films.getFilmById(id);
+					films.getFilmsByIds(List.of(id, id + 1), FieldSet.ALL);
+				}
+				return null;
+			});
+		}
+		tasks.add(() -> {
+			for (long id = 1; id <= count; id += 2) {
+				films.removeFilmById(id);
+			}
+			return null;
+		});
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		List<Long> ids = films.getAllFilms().stream().map(Film::getId).collect(Collectors.toList());
+		assertThat(ids).as("Удаленные фильмы вернулись в память").allMatch(id -> id % 2 == 0);
+		for (long id = 1; id <= count; id += 2) {
+			assertThat(films.exists(id)).as("Удаленный фильм виден через уровень в памяти").isFalse();
+		}
+	}
+
+	@Test
+	public void schemaMigrationsRunOnce() throws DataExistException, ValidationException {
+		User user = userStorage.addUser(createUser());
+		jdbcTemplate.update("INSERT INTO FILM_TABLE (NAME, MPA_ID) VALUES ('Film', 1)");
+		long filmId = jdbcTemplate.queryForObject("SELECT FILM_ID FROM FILM_TABLE", Long.class);
+		jdbcTemplate.update("INSERT INTO FILM_USER (FILM_ID, USER_ID) VALUES (?, ?)", filmId, user.getId());
+		schemaInitializer.initializeDatabase();
+		assertEquals(List.of(1), jdbcTemplate.queryForList("SELECT VERSION FROM SCHEMA_VERSION", Integer.class),
+				"Миграция должна быть записана один раз");
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT LIKES_COUNT FROM FILM_TABLE", Integer.class),
+				"Повторный запуск не должен заново пересчитывать счетчик лайков");
+	}
+
+	@Test
+	public void existsChecksLiveIdsAndFallsBackToDatabase() throws DataExistException {
+		addUser();
+		filmDbStorage.addFilm(createFilm());
+		assertThat(filmDbStorage.exists(1)).isTrue();
+		assertThat(userStorage.exists(1)).isTrue();
+		assertThat(filmDbStorage.exists(2)).isFalse();
+		assertThat(userStorage.exists(0)).isFalse();
+
+		jdbcTemplate.update("insert into USER_TABLE(NAME, LOGIN, BIRTHDAY, EMAIL) " +
+				"values ('Direct', 'direct', '2000-01-01', 'direct@mail.ru')");
+		assertThat(userStorage.exists(2)).as("Промах должен проверяться в базе").isTrue();
+
+		filmDbStorage.removeFilmById(1);
+		userStorage.removeUserById(1);
+		assertThat(filmDbStorage.exists(1)).isFalse();
+		assertThat(userStorage.exists(1)).isFalse();
+	}
+
+	@Test
+	public void getFilmsWithFieldSetSkipsUnrequestedAssociations() throws DataExistException {
+		addUser();
+		Film film = createFilm();
+		film.setGenres(new ArrayList<>(List.of(Genre.builder().id(1).build())));
+		filmDbStorage.addFilm(film);
+		filmDbStorage.addLike(1L, 1L);
+		FieldSet fields = FieldSet.parse("name,likesCount", Film.FIELDS);
+
+		Film partial = filmDbStorage.getFilms(0, 10, fields).get(0);
+		assertThat(partial.getGenres()).as("Жанры не запрашивались").isEmpty();
+		assertThat(partial.getLikes()).as("Лайки не запрашивались").isEmpty();
+		assertEquals(1, partial.getLikesCount(), "Число лайков должно читаться из счетчика");
+		assertEquals(List.of("id", "name", "likesCount"), new ArrayList<>(partial.toView(fields).keySet()),
+				"Отдаются незапрошенные поля");
+		assertEquals(1, filmDbStorage.getFilmById(1, FieldSet.parse("genres", Film.FIELDS)).getGenres().size(),
+				"Запрошенные жанры не загружены");
+		assertThrows(ValidationException.class, () -> FieldSet.parse("name,rating", Film.FIELDS));
+	}
+
+	@Test
+	public void getLikesByPages() throws DataExistException {
+		filmDbStorage.addFilm(createFilm());
+		for (int i = 0; i < 3; i++) {
+			userStorage.addUser(createUser());
+		}
+		filmDbStorage.addLike(1L, 3L);
+		filmDbStorage.addLike(1L, 1L);
+		filmDbStorage.addLike(1L, 2L);
+		assertEquals(List.of(1L, 2L), filmDbStorage.getLikes(1, 0, 2), "Первая страница лайков неверная");
+		assertEquals(List.of(3L), filmDbStorage.getLikes(1, 2, 2), "Вторая страница лайков неверная");
+		assertNull(filmDbStorage.getLikes(2, 0, 2), "Лайки несуществующего фильма");
+	}
+
+	@Test
+	public void getFilmsAndUsersByIdsInRequestedOrder() throws DataExistException {
+		for (int i = 0; i < 3; i++) {
+			filmDbStorage.addFilm(createFilm());
+			userStorage.addUser(createUser());
+		}
+		filmDbStorage.addLike(2L, 1L);
+		List<Film> films = filmDbStorage.getFilmsByIds(List.of(3L, 99L, 2L, 3L), FieldSet.ALL);
+		assertEquals(List.of(3L, 2L, 3L), films.stream().map(Film::getId).collect(Collectors.toList()),
+				"Фильмы по id возвращаются не в порядке запроса");
+		assertEquals(Set.of(1L), Set.copyOf(films.get(1).getLikes()), "Лайки фильмов не загружены");
+		assertEquals(List.of(2L, 1L), userStorage.getUsersByIds(List.of(2L, 1L, 42L)).stream()
+						.map(User::getId)
+						.collect(Collectors.toList()),
+				"Пользователи по id возвращаются не в порядке запроса");
+	}
 }
@@ -0,0 +1,45 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkImporterTest {
+    private final BulkImporter bulkImporter = new BulkImporter(
+            new ObjectMapper().registerModule(new ParameterNamesModule(JsonCreator.Mode.PROPERTIES)),
+            Validation.buildDefaultValidatorFactory().getValidator(), 2);
+
+    @Test
+    void shouldKeepSavedChunksWhenElementIsBroken() throws IOException {
+        List<FilmLike> saved = new ArrayList<>();
+        String body = "[{\"filmId\":1,\"userId\":1},{\"filmId\":1,\"userId\":2},{\"filmId\":1,\"userId\":3}," +
+                "{\"filmId\":\"x\",\"userId\":4},{\"filmId\":1,\"userId\":5}]";
+        List<BulkItemResult> results = bulkImporter.importAll(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), FilmLike.class, likes -> {
+                    saved.addAll(likes);
+                    return likes.stream()
+                            .map(like -> BulkItemResult.builder().success(true).id(like.getUserId()).build())
+                            .collect(Collectors.toList());
+                });
+        assertEquals(List.of(1L, 2L, 3L), saved.stream().map(FilmLike::getUserId).collect(Collectors.toList()),
+                "Элементы до ошибки должны быть сохранены, после нее - нет");
+        assertEquals(4, results.size(), "Количество результатов неверное");
+        assertTrue(results.subList(0, 3).stream().allMatch(BulkItemResult::isSuccess),
+                "Результаты сохраненных элементов потеряны");
+        assertFalse(results.get(3).isSuccess(), "Ошибочный элемент не отмечен");
+        assertNotNull(results.get(3).getError(), "Нет описания ошибки элемента");
+    }
+}
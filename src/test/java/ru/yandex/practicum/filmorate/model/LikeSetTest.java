@@ -0,0 +1,67 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LikeSetTest {
+
+    @Test
+    void shouldBehaveLikeTreeSetAcrossArrayAndBitmap() {
+        LikeSet likes = new LikeSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            long id = random.nextInt(1_000);
+            boolean add = expected.size() < 600 ? random.nextInt(4) > 0 : random.nextInt(4) == 0;
+            assertEquals(add ? expected.add(id) : expected.remove(id), add ? likes.add(id) : likes.remove(id),
+                    "Результат изменения множества неверный");
+            assertEquals(expected.size(), likes.size(), "Размер множества неверный");
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(likes), "Порядок лайков неверный");
+        assertTrue(likes.contains(expected.first()), "Лайк не найден");
+        assertFalse(likes.contains((Object) 5_000L), "Найден лишний лайк");
+    }
+
+    @Test
+    void shouldRemoveThroughIterator() {
+        LikeSet likes = new LikeSet();
+        for (long id = 1; id <= 1_000; id++) {
+            likes.add(id);
+        }
+        likes.removeIf(id -> id > 10);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), new ArrayList<>(likes),
+                "Лайки удалены неверно");
+    }
+
+    @Test
+    void shouldSerializeAsJsonArray() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        LikeSet likes = new LikeSet();
+        likes.add(3L);
+        likes.add(1L);
+        assertEquals("[1,3]", objectMapper.writeValueAsString(likes), "Лайки сериализованы неверно");
+        LikeSet read = objectMapper.readValue("[5,2,5]", LikeSet.class);
+        assertEquals(List.of(2L, 5L), new ArrayList<>(read), "Лайки прочитаны неверно");
+    }
+
+    @Test
+    void shouldReturnPagesInArrayAndBitmapModes() {
+        for (int count : new int[]{100, 1_000}) {
+            LikeSet likes = new LikeSet();
+            for (long id = 1; id <= count; id++) {
+                likes.add(id * 2);
+            }
+            assertArrayEquals(new long[]{2, 4, 6}, likes.page(0, 3), "Первая страница неверная");
+            assertArrayEquals(new long[]{12, 14}, likes.page(11, 2), "Страница после курсора неверная");
+            assertArrayEquals(new long[]{count * 2L}, likes.page(count * 2L - 1, 10), "Последняя страница неверная");
+            assertEquals(0, likes.page(count * 2L, 10).length, "После последнего лайка страница должна быть пустой");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Проверяет, что каждый изменяющий запрос к сервисам делает в базу ровно один коммит.
+ * В режиме autocommit коммитом считается каждый выполненный statement.
+ */
+@SpringBootTest(properties = "filmorate.likes.counter.flush-interval-ms=3600000")
+@AutoConfigureTestDatabase
+@DirtiesContext
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class CommitsPerRequestTest {
+    private static final AtomicInteger COMMITS = new AtomicInteger();
+
+    private final FilmService filmService;
+    private final UserService userService;
+
+    @TestConfiguration
+    static class CommitCountingConfig {
+        @Bean
+        static BeanPostProcessor commitCountingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof DataSource) {
+                        return countCommits((DataSource) bean);
+                    }
+                    return bean;
+                }
+            };
+        }
+    }
+
+    @Test
+    void shouldCommitEachRequestOnce() throws DataExistException {
+        User user = inOneCommit("addUser", () -> userService.addUser(createUser("Login")));
+        User friend = inOneCommit("addUser", () -> userService.addUser(createUser("Friend")));
+        Film film = inOneCommit("addFilm (3 жанра)", () -> filmService.addFilm(createFilm(1, 2, 3)));
+        Film updated = createFilm(2, 3, 4);
+        updated.setId(film.getId());
+        inOneCommit("updateFilm (3 жанра)", () -> filmService.updateFilm(updated));
+        assertEquals(List.of(2, 3, 4), filmService.getFilmById(film.getId()).getGenres().stream()
+                .map(Genre::getId)
+                .collect(Collectors.toList()), "Жанры фильма не обновлены");
+        inOneCommit("addLike", () -> {
+            filmService.addLike(film.getId(), user.getId());
+            return null;
+        });
+        inOneCommit("removeLike", () -> {
+            filmService.removeLike(film.getId(), user.getId());
+            return null;
+        });
+        inOneCommit("addFriend", () -> {
+            userService.addFriend(user.getId(), friend.getId());
+            return null;
+        });
+        assertEquals(List.of(friend.getId()), userService.getAllFriends(user.getId()).stream()
+                .map(User::getId)
+                .collect(Collectors.toList()), "Друг не добавлен");
+    }
+
+    private <T> T inOneCommit(String operation, Request<T> request) throws DataExistException {
+        COMMITS.set(0);
+        T result = request.run();
+        assertEquals(1, COMMITS.get(), operation + " выполнен не одним коммитом");
+        return result;
+    }
+
+    private User createUser(String login) {
+        return User.builder()
+                .email(login + "@mail.ru")
+                .login(login)
+                .name("Name")
+                .birthday(LocalDate.of(2000, 2, 20))
+                .build();
+    }
+
+    private Film createFilm(int... genreIds) {
+        Film film = Film.builder()
+                .name("FilmName")
+                .description("Description")
+                .releaseDate(LocalDate.of(2000, 12, 12))
+                .duration(90)
+                .mpa(Mpa.builder().id(1).build())
+                .build();
+        film.setGenres(new ArrayList<>());
+        for (int genreId : genreIds) {
+            film.getGenres().add(Genre.builder().id(genreId).build());
+        }
+        return film;
+    }
+
+    private static DataSource countCommits(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                    Object result = invoke(dataSource, method, args);
+                    if (result instanceof Connection) {
+                        return countCommits((Connection) result);
+                    }
+                    return result;
+                });
+    }
+
+    private static Connection countCommits(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("commit")) {
+                        COMMITS.incrementAndGet();
+                    }
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement) {
+                        return countCommits(connection, (Statement) result);
+                    }
+                    return result;
+                });
+    }
+
+    private static Statement countCommits(Connection connection, Statement statement) {
+        Class<?> type = statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class<?>[]{type}, (proxy, method, args) -> {
+                    Object result = invoke(statement, method, args);
+                    if (method.getName().startsWith("execute") && connection.getAutoCommit()) {
+                        COMMITS.incrementAndGet();
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private interface Request<T> {
+        T run() throws DataExistException;
+    }
+}
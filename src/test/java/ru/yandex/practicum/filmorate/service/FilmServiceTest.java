@@ -4,7 +4,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.model.BulkItemResult;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.film.InMemoryFilmStorage;
@@ -12,6 +15,7 @@ import ru.yandex.practicum.filmorate.storage.user.InMemoryUserStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -114,6 +118,28 @@ class FilmServiceTest {
         assertEquals(1, filmService.getTopFilms(10).get(0).getId(), "Топ фильмов формируется не корректно");
     }
 
-
-
-}
\ No newline at end of file
+    @Test
+    void addFilmsAndLikesInBulk() throws DataExistException {
+        userStorage.addUser(user);
+        film.setMpa(Mpa.builder().id(1).build());
+        Film invalid = Film.builder()
+                .name("FilName")
+                .description("Description1")
+                .releaseDate(LocalDate.of(2000, 12,12))
+                .duration(0)
+                .mpa(Mpa.builder().id(1).build())
+                .build();
+        List<BulkItemResult> results = filmService.addFilms(List.of(film, invalid));
+        assertTrue(results.get(0).isSuccess(), "Корректный фильм не добавлен");
+        assertEquals(film.getId(), results.get(0).getId(), "Идентификатор фильма возвращается неверно");
+        assertEquals("Продолжительность фильма должна быть положительной.", results.get(1).getError(),
+                "Нет ошибки для некорректного фильма");
+        assertEquals(1, filmService.getAllFilms().size(), "Количество фильмов неверное");
+        results = filmService.addLikes(List.of(
+                FilmLike.builder().filmId(film.getId()).userId(user.getId()).build(),
+                FilmLike.builder().filmId(film.getId()).userId(99L).build()));
+        assertTrue(results.get(0).isSuccess(), "Лайк не добавлен");
+        assertFalse(results.get(1).isSuccess(), "Нет ошибки для несуществующего пользователя");
+        assertEquals(1, filmService.getFilmById(film.getId()).getLikesCount(), "Количество лайков неверное");
+    }
+}
@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void shouldShareOneLoadBetweenConcurrentCallers() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SingleFlight<Long, String> flight = new SingleFlights(registry, true, 10_000).create("test");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> flight.load(1L, () -> {
+                    loads.incrementAndGet();
+                    release.await();
+                    return "film";
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("film", result.get(5, TimeUnit.SECONDS), "Результат загрузки неверный");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get(), "Одновременные вызовы должны делить одну загрузку");
+        assertEquals(threads, registry.get("filmorate.singleflight.callers").tag("load", "test")
+                .summary().totalAmount(), "Метрика числа вызовов на загрузку неверная");
+    }
+
+    @Test
+    void shouldLoadAgainAfterWaitCapAndPassExceptions() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SingleFlight<Long, String> flight = new SingleFlights(registry, true, 50).create("test");
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = executor.submit(() -> flight.load(1L, () -> {
+                release.await();
+                return "slow";
+            }));
+            Thread.sleep(100);
+            assertEquals("own", flight.load(1L, () -> "own"), "После ожидания вызов должен загрузить сам");
+            assertEquals(1, registry.get("filmorate.singleflight.timeouts").counter().count(),
+                    "Метрика превышений ожидания неверная");
+            release.countDown();
+            assertEquals("slow", slow.get(5, TimeUnit.SECONDS), "Результат загрузки неверный");
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThrows(DataExistException.class, () -> flight.load(2L, () -> {
+            throw new DataExistException("Такой фильм не существует.");
+        }));
+    }
+
+    @Test
+    void shouldPassLeaderCheckedExceptionToWaiters() throws Exception {
+        SingleFlight<Long, String> flight = new SingleFlights(new SimpleMeterRegistry(), true, 10_000).create("test");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> flight.load(1L, () -> {
+                started.countDown();
+                release.await();
+                throw new DataExistException("Такой фильм не существует.");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS), "Загрузка не началась");
+            AtomicReference<Thread> waiterThread = new AtomicReference<>();
+            Future<String> waiter = executor.submit(() -> {
+                waiterThread.set(Thread.currentThread());
+                return flight.load(1L, () -> "own");
+            });
+            // ждущий вызов висит на результате загрузки с таймаутом
+            while (waiterThread.get() == null || waiterThread.get().getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            ExecutionException leaderError = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+            ExecutionException waiterError = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(DataExistException.class, leaderError.getCause(), "Исключение загрузки потеряно");
+            assertSame(leaderError.getCause(), waiterError.getCause(), "Ждущий должен получить исключение загрузки");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldNotJoinLoadStartedBeforeWrite() throws Exception {
+        SingleFlights singleFlights = new SingleFlights(new SimpleMeterRegistry(), true, 10_000);
+        SingleFlight<Long, String> flight = singleFlights.create("test");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> stale = executor.submit(() -> flight.load(1L, () -> {
+                started.countDown();
+                release.await();
+                return "before";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS), "Загрузка не началась");
+            singleFlights.invalidate();
+            assertEquals("after", flight.load(1L, () -> "after"),
+                    "Вызов после записи не должен получать загрузку, начатую до нее");
+            release.countDown();
+            assertEquals("before", stale.get(5, TimeUnit.SECONDS), "Результат загрузки неверный");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -9,6 +9,7 @@ import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -461,4 +462,15 @@ abstract class FilmStorageTest<T extends FilmStorage> {
         assertEquals(1, filmService.getFilmById(1).getId(), "Возвращается не верный фильм.");
     }
 
-}
\ No newline at end of file
+    @Test
+    void getLikesByPages() throws ValidationException, DataExistException {
+        filmService.addFilm(film);
+        for (long userId = 1; userId <= 5; userId++) {
+            filmStorage.addLike(film.getId(), userId);
+        }
+        assertEquals(List.of(1L, 2L), filmStorage.getLikes(film.getId(), 0, 2), "Первая страница лайков неверная");
+        assertEquals(List.of(3L, 4L, 5L), filmStorage.getLikes(film.getId(), 2, 10), "Вторая страница лайков неверная");
+        assertEquals(List.of(), filmStorage.getLikes(film.getId(), 5, 10), "Лишние лайки после курсора");
+        assertNull(filmStorage.getLikes(film.getId() + 1, 0, 10), "Лайки несуществующего фильма");
+    }
+}
@@ -1,12 +1,25 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.yandex.practicum.filmorate.model.FieldSet;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.journal.JournalFactory;
 import ru.yandex.practicum.filmorate.storage.user.InMemoryUserStorage;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class InMemoryFilmStorageTest extends FilmStorageTest<InMemoryFilmStorage> {
 
@@ -24,4 +37,176 @@ class InMemoryFilmStorageTest extends FilmStorageTest<InMemoryFilmStorage> {
                 .build();
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldRankByGenreAndMpaTogether() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Film added = filmStorage.addFilm(film.toBuilder()
+                    .mpa(Mpa.builder().id(i % 2 + 1).build())
+                    .genres(List.of(Genre.builder().id(i < 2 ? 1 : 2).build()))
+                    .build());
+            ids.add(added.getId());
+            for (long userId = 0; userId < i; userId++) {
+                filmStorage.addLike(added.getId(), userId);
+            }
+        }
+        assertEquals(List.of(ids.get(2)), filmStorage.getTopFilms(10, 2, 1).stream()
+                .map(Film::getId)
+                .collect(Collectors.toList()), "Топ по жанру и рейтингу неверный");
+        filmStorage.updateFilm(filmStorage.getFilmById(ids.get(3)).toBuilder()
+                .mpa(Mpa.builder().id(1).build())
+                .build());
+        assertEquals(List.of(ids.get(3), ids.get(2)), filmStorage.getTopFilms(10, 2, 1).stream()
+                .map(Film::getId)
+                .collect(Collectors.toList()), "Топ не учел смену рейтинга фильма");
+        assertTrue(filmStorage.getTopFilms(10, 2, 2).isEmpty(), "Фильм остался в старом рейтинге");
+    }
+
+    @Test
+    void shouldKeepLikesConsistentUnderConcurrentLoad() throws Exception {
+        int threads = 8;
+        int filmsCount = 20;
+        int usersCount = threads * 100;
+        for (int i = 0; i < filmsCount; i++) {
+            filmStorage.addFilm(film.toBuilder().build());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long firstUser = (long) t * usersCount / threads;
+            tasks.add(() -> {
+                for (int i = 0; i < 3; i++) {
+                    filmStorage.addFilm(film.toBuilder().build());
+                }
+                return null;
+            });
+            tasks.add(() -> {
+                for (long userId = firstUser; userId < firstUser + usersCount / threads; userId++) {
+                    for (long filmId = 1; filmId <= filmsCount; filmId++) {
+                        filmStorage.addLike(filmId, userId);
+                        if ((userId + filmId) % 3 == 0) {
+                            filmStorage.removeLike(filmId, userId);
+                        }
+                    }
+                    filmStorage.getTopFilms(10, null, null);
+                    filmStorage.getAllFilms();
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        executor.shutdown();
+
+        List<Film> films = filmStorage.getAllFilms();
+        Set<Long> ids = films.stream().map(Film::getId).collect(Collectors.toSet());
+        assertEquals(filmsCount + threads * 3, films.size(), "Количество фильмов неверное");
+        assertEquals(films.size(), ids.size(), "Идентификаторы фильмов повторяются");
+        for (Film stored : films) {
+            int expected = 0;
+            if (stored.getId() <= filmsCount) {
+                for (long userId = 0; userId < usersCount; userId++) {
+                    boolean liked = (userId + stored.getId()) % 3 != 0;
+                    assertEquals(liked, stored.getLikes().contains(userId), "Лайк пользователя неверный");
+                    expected += liked ? 1 : 0;
+                }
+            }
+            assertEquals(expected, stored.getLikesCount(), "Количество лайков неверное");
+            assertEquals(expected, filmStorage.getLikesCount(stored.getId()), "Счетчик лайков неверный");
+        }
+        List<Film> top = filmStorage.getTopFilms(films.size(), null, null);
+        assertEquals(films.size(), top.size(), "Рейтинг неполный");
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getLikesCount() >= top.get(i).getLikesCount(), "Рейтинг не упорядочен");
+        }
+    }
+
+    @Test
+    void shouldCopyOnlyRequestedRelations() throws Exception {
+        Film added = filmStorage.addFilm(film.toBuilder().genres(List.of(Genre.builder().id(1).build())).build());
+        filmStorage.addLike(added.getId(), 7L);
+        Film partial = filmStorage.getFilmById(added.getId(), FieldSet.of(List.of(Film.NAME, Film.LIKES_COUNT)));
+        assertNull(partial.getLikes(), "Незапрошенные лайки не должны копироваться");
+        assertNull(partial.getGenres(), "Незапрошенные жанры не должны копироваться");
+        assertEquals(1, partial.getLikesCount(), "Число лайков должно отдаваться без самих лайков");
+        Film full = filmStorage.getTopFilms(1, null, null, FieldSet.ALL).get(0);
+        assertEquals(Set.of(7L), full.getLikes(), "Полный фильм должен содержать лайки");
+        assertEquals(1, full.getGenres().size(), "Полный фильм должен содержать жанры");
+    }
+
+    @Test
+    void shouldRecoverFromSnapshotAndJournal(@TempDir Path dir) throws Exception {
+        JournalFactory journals = new JournalFactory(true, dir.toString(), false);
+        InMemoryFilmStorage storage = new InMemoryFilmStorage(journals);
+        for (int i = 0; i < 3; i++) {
+            storage.addFilm(film.toBuilder().build());
+        }
+        storage.addLike(1L, 10L);
+        storage.addLike(2L, 10L);
+        storage.addLike(2L, 11L);
+        storage.snapshot();
+        storage.updateFilm(film.toBuilder().id(2).name("Updated").build());
+        storage.removeFilmById(3);
+        storage.removeLike(2L, 10L);
+        storage.addLike(1L, 12L);
+        storage.close();
+
+        InMemoryFilmStorage recovered = new InMemoryFilmStorage(journals);
+        assertEquals(2, recovered.getAllFilms().size(), "Количество фильмов после восстановления неверное");
+        assertEquals("Updated", recovered.getFilmById(2).getName(), "Обновление фильма потеряно");
+        assertEquals(Set.of(10L, 12L), recovered.getFilmById(1).getLikes(), "Лайки фильма 1 неверные");
+        assertEquals(Set.of(11L), recovered.getFilmById(2).getLikes(), "Лайки фильма 2 неверные");
+        assertEquals(1, recovered.getTopFilms(1, null, null).get(0).getId(), "Рейтинг не восстановлен");
+        assertEquals(4, recovered.addFilm(film.toBuilder().build()).getId(), "Счетчик id не восстановлен");
+        recovered.close();
+    }
+
+    @Test
+    void shouldRecoverWhenSnapshotsRunDuringChanges(@TempDir Path dir) throws Exception {
+        JournalFactory journals = new JournalFactory(true, dir.toString(), false);
+        InMemoryFilmStorage storage = new InMemoryFilmStorage(journals);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        Film added = storage.addFilm(film.toBuilder().build());
+                        storage.addLike(added.getId(), (long) i);
+                        if (i % 2 == 0) {
+                            storage.removeFilmById(added.getId());
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            });
+        }
+        tasks.add(() -> {
+            while (done.getCount() > 0) {
+                storage.snapshot();
+            }
+            return null;
+        });
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        executor.shutdown();
+        List<Film> expected = storage.getAllFilms();
+        storage.close();
+
+        InMemoryFilmStorage recovered = new InMemoryFilmStorage(journals);
+        List<Film> films = recovered.getAllFilms();
+        assertEquals(threads * 100, films.size(), "Количество фильмов после восстановления неверное");
+        assertEquals(expected.stream().map(Film::getId).collect(Collectors.toList()),
+                films.stream().map(Film::getId).collect(Collectors.toList()), "Фильмы после восстановления неверные");
+        for (int i = 0; i < films.size(); i++) {
+            assertEquals(expected.get(i).getLikes(), films.get(i).getLikes(), "Лайки после восстановления неверные");
+        }
+        recovered.close();
+    }
+}
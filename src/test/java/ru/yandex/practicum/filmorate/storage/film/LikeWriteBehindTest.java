@@ -0,0 +1,103 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LikeWriteBehindTest {
+    private final List<Map<FilmLike, Boolean>> written = new ArrayList<>();
+    private LikeWriteBehind likeWriteBehind;
+
+    private LikeWriteBehind create(int capacity, long flushIntervalMs) {
+        likeWriteBehind = new LikeWriteBehind(Mockito.mock(PlatformTransactionManager.class), true, capacity,
+                flushIntervalMs, 50, 3);
+        return likeWriteBehind;
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        likeWriteBehind.close();
+    }
+
+    @Test
+    void shouldCoalesceChangesOfOneLike() {
+        create(10, 60_000).start(written::add);
+        assertTrue(likeWriteBehind.offer(1, 1, true), "Лайк не принят в очередь");
+        assertTrue(likeWriteBehind.offer(1, 1, false), "Отмена лайка не принята в очередь");
+        assertTrue(likeWriteBehind.offer(1, 2, true), "Лайк не принят в очередь");
+        likeWriteBehind.flush();
+        assertEquals(1, written.size(), "Количество записей пачкой неверное");
+        assertEquals(Map.of(FilmLike.builder().filmId(1L).userId(1L).build(), false,
+                FilmLike.builder().filmId(1L).userId(2L).build(), true), written.get(0),
+                "Изменения лайков схлопнуты неверно");
+    }
+
+    @Test
+    void shouldRejectWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        create(1, 60_000).start(changes -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.add(changes);
+        });
+        assertTrue(likeWriteBehind.offer(1, 1, true), "Лайк не принят в очередь");
+        assertTrue(likeWriteBehind.offer(1, 1, false), "Изменение того же лайка должно приниматься");
+        likeWriteBehind.offer(1, 2, true);
+        assertFalse(likeWriteBehind.offer(1, 3, true), "Переполненная очередь должна отказывать");
+        release.countDown();
+    }
+
+    @Test
+    void shouldFlushOnClose() throws InterruptedException {
+        create(10, 60_000).start(written::add);
+        likeWriteBehind.offer(1, 1, true);
+        likeWriteBehind.close();
+        assertEquals(1, written.size(), "Очередь не записана при остановке");
+        assertFalse(likeWriteBehind.offer(1, 2, true), "Остановленная очередь не должна принимать лайки");
+    }
+
+    @Test
+    void shouldWriteAroundPoisonedLikeAndCapRetries() {
+        FilmLike poisoned = FilmLike.builder().filmId(1L).userId(99L).build();
+        FilmLike failing = FilmLike.builder().filmId(2L).userId(1L).build();
+        List<Map<FilmLike, Boolean>> attempted = new ArrayList<>();
+        create(10, 60_000).start(changes -> {
+            attempted.add(changes);
+            if (changes.containsKey(poisoned)) {
+                throw new DataIntegrityViolationException("Нет такого пользователя");
+            }
+            if (changes.containsKey(failing)) {
+                throw new TransientDataAccessResourceException("База недоступна");
+            }
+            written.add(changes);
+        });
+        likeWriteBehind.offer(1, 1, true);
+        likeWriteBehind.offer(1, 99, true);
+        likeWriteBehind.offer(2, 1, true);
+        likeWriteBehind.flush();
+        assertEquals(List.of(Map.of(FilmLike.builder().filmId(1L).userId(1L).build(), true)), written,
+                "Исправное изменение должно записаться несмотря на плохое соседнее");
+
+        attempted.clear();
+        for (int i = 0; i < 5; i++) {
+            likeWriteBehind.flush();
+        }
+        assertEquals(2, attempted.size(), "Временная ошибка должна повторяться ограниченное число раз");
+        assertTrue(attempted.stream().noneMatch(changes -> changes.containsKey(poisoned)),
+                "Отвергнутое базой изменение не должно повторяться");
+    }
+}
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.user.InMemoryUserStorage;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapFilmStorageTest extends FilmStorageTest<OffHeapFilmStorage> {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void beforeEach() {
+        filmStorage = new OffHeapFilmStorage(dir.toString());
+        filmService = new FilmService(filmStorage, new InMemoryUserStorage());
+        film = Film.builder()
+                .id(0)
+                .name("FilName")
+                .description("Description1")
+                .releaseDate(LocalDate.of(2000, 12,12))
+                .duration(90)
+                .mpa(Mpa.builder().id(1).build())
+                .build();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        filmStorage.close();
+    }
+
+    @Test
+    void shouldKeepLikesAndTopOffHeap() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            filmStorage.addFilm(film.toBuilder()
+                    .name("Film" + i)
+                    .mpa(Mpa.builder().id(1 + i % 2).name("Mpa").build())
+                    .genres(List.of(Genre.builder().id(1 + i % 3).build()))
+                    .build());
+        }
+        filmStorage.addLike(2L, 10L);
+        filmStorage.addLike(2L, 11L);
+        filmStorage.addLike(4L, 10L);
+        filmStorage.addLike(3L, 12L);
+        filmStorage.removeLike(3L, 12L);
+        assertThrows(DataExistException.class, () -> filmStorage.addLike(2L, 10L));
+        assertThrows(DataExistException.class, () -> filmStorage.removeLike(3L, 12L));
+
+        Film stored = filmStorage.getFilmById(2);
+        assertEquals("Film1", stored.getName(), "Название фильма неверное");
+        assertEquals("Mpa", stored.getMpa().getName(), "Рейтинг MPA неверный");
+        assertEquals(Set.of(10L, 11L), stored.getLikes(), "Лайки фильма неверные");
+        assertEquals(List.of(2L, 4L, 1L), ids(filmStorage.getTopFilms(3, null, null)), "Топ фильмов неверный");
+        assertEquals(List.of(2L, 4L), ids(filmStorage.getTopFilms(10, null, 2)), "Топ по MPA неверный");
+        assertEquals(List.of(2L, 5L), ids(filmStorage.getTopFilms(10, 2, null)), "Топ по жанру неверный");
+
+        filmStorage.removeFilmById(2);
+        assertNull(filmStorage.getLikesCount(2), "Удаленный фильм не должен иметь счетчика лайков");
+        assertEquals(List.of(4L, 1L), ids(filmStorage.getTopFilms(2, null, null)), "Удаленный фильм остался в топе");
+        assertEquals(List.of(3L, 4L), ids(filmStorage.getFilms(2, 2)), "Страница фильмов неверная");
+        assertEquals(Set.of(1L, 3L), filmStorage.findExistingIds(List.of(1L, 2L, 3L, 9L)), "Существующие id неверные");
+    }
+
+    private List<Long> ids(List<Film> films) {
+        return films.stream().map(Film::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.storage.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTest {
+
+    @Test
+    void shouldReplayRecordsAndDropTornTail(@TempDir Path dir) throws Exception {
+        Journal journal = new Journal(dir, "test", true);
+        journal.open(in -> fail("Снимка еще нет"), in -> fail("Журнал еще пуст"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 250; i++) {
+                    long value = thread * 1000L + i;
+                    journal.await(journal.append(out -> out.writeLong(value)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        journal.close();
+        Path segment = dir.resolve("test-0.wal");
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 8, 1, 2}, StandardOpenOption.APPEND);
+
+        List<Long> values = new ArrayList<>();
+        Journal reopened = new Journal(dir, "test", true);
+        reopened.open(in -> fail("Снимка еще нет"), in -> values.add(in.readLong()));
+        assertEquals(1000, values.size(), "Проиграны не все записи");
+        assertEquals(size, Files.size(segment), "Оборванная запись не отброшена");
+
+        reopened.snapshot(out -> out.writeInt(values.size()));
+        reopened.await(reopened.append(out -> out.writeLong(-1)));
+        reopened.close();
+        assertFalse(Files.exists(segment), "Сегмент до снимка должен быть удален");
+
+        List<Long> tail = new ArrayList<>();
+        int[] snapshot = new int[1];
+        Journal recovered = new Journal(dir, "test", true);
+        recovered.open(in -> snapshot[0] = in.readInt(), in -> tail.add(in.readLong()));
+        recovered.close();
+        assertEquals(1000, snapshot[0], "Снимок прочитан неверно");
+        assertEquals(List.of(-1L), tail, "После снимка должна проиграться только новая запись");
+    }
+}
@@ -0,0 +1,39 @@
+package ru.yandex.practicum.filmorate.storage.offheap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedStringsTest {
+
+    @Test
+    void shouldKeepStringsWithinChunks(@TempDir Path dir) {
+        MappedRegion region = new MappedRegion(dir.resolve("strings"), 10);
+        MappedStrings strings = new MappedStrings(region);
+        assertFalse(Files.exists(dir.resolve("strings")), "Файл не должен создаваться до первой записи");
+        List<Long> references = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String value = "Строка " + "x".repeat(i % 97) + i;
+            values.add(value);
+            references.add(strings.write(value));
+        }
+        for (int i = 0; i < values.size(); i++) {
+            long reference = references.get(i);
+            assertEquals(values.get(i), strings.read(reference), "Строка прочитана неверно");
+            assertEquals(reference / region.getChunkSize(),
+                    (reference + 3 + strings.readBytes(reference).length) / region.getChunkSize(),
+                    "Строка пересекает границу куска");
+        }
+        assertNull(strings.read(strings.write((String) null)), "Пустая ссылка должна читаться как null");
+        assertThrows(IllegalArgumentException.class, () -> strings.write(new byte[2000]));
+        strings.close();
+        assertFalse(Files.exists(dir.resolve("strings")), "Рабочий файл должен удаляться при закрытии");
+    }
+}
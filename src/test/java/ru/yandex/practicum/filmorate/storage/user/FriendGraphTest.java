@@ -0,0 +1,77 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FriendGraphTest {
+
+    @Test
+    void shouldMatchReferenceGraphAcrossCompactions() {
+        FriendGraph graph = new FriendGraph(2);
+        Map<Long, TreeSet<Long>> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 50_000; i++) {
+            long userId = 1 + random.nextInt(300);
+            long friendId = 1 + random.nextInt(300);
+            TreeSet<Long> row = expected.computeIfAbsent(userId, k -> new TreeSet<>());
+            if (random.nextInt(3) > 0) {
+                assertEquals(row.add(friendId), graph.add(userId, friendId), "Результат добавления друга неверный");
+            } else {
+                assertEquals(row.remove(friendId), graph.remove(userId, friendId), "Результат удаления друга неверный");
+            }
+        }
+        for (long userId = 0; userId <= 301; userId++) {
+            long[] expectedRow = toArray(expected.getOrDefault(userId, new TreeSet<>()));
+            assertArrayEquals(expectedRow, graph.getFriends(userId), "Список друзей неверный");
+            TreeSet<Long> common = new TreeSet<>(expected.getOrDefault(userId, new TreeSet<>()));
+            common.retainAll(expected.getOrDefault(userId + 1, new TreeSet<>()));
+            assertArrayEquals(toArray(common), graph.getCommonFriends(userId, userId + 1), "Общие друзья неверные");
+        }
+    }
+
+    @Test
+    void shouldKeepSparseIdsAcrossCompactions() {
+        FriendGraph graph = new FriendGraph(2);
+        Map<Long, TreeSet<Long>> expected = new HashMap<>();
+        Random random = new Random(17);
+        long[] ids = new long[200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i % 2 == 0 ? 1 + random.nextInt(1000) : Integer.MAX_VALUE + 1L + random.nextInt(1_000_000);
+        }
+        for (int i = 0; i < 20_000; i++) {
+            long userId = ids[random.nextInt(ids.length)];
+            long friendId = ids[random.nextInt(ids.length)];
+            TreeSet<Long> row = expected.computeIfAbsent(userId, k -> new TreeSet<>());
+            if (random.nextInt(3) > 0) {
+                assertEquals(row.add(friendId), graph.add(userId, friendId), "Результат добавления друга неверный");
+            } else {
+                assertEquals(row.remove(friendId), graph.remove(userId, friendId), "Результат удаления друга неверный");
+            }
+        }
+        for (long userId : ids) {
+            TreeSet<Long> row = expected.getOrDefault(userId, new TreeSet<>());
+            assertArrayEquals(toArray(row), graph.getFriends(userId), "Список друзей неверный");
+            assertEquals(row.size(), graph.getFriendsCount(userId), "Количество друзей неверное");
+        }
+    }
+
+    @Test
+    void shouldIntersectByGalloping() {
+        long[] small = {3, 500, 999, 2000};
+        long[] large = new long[1000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = i;
+        }
+        assertArrayEquals(new long[]{3, 500, 999}, FriendGraph.gallopIntersect(small, large),
+                "Пересечение неверное");
+        assertArrayEquals(new long[]{3, 500, 999}, FriendGraph.mergeIntersect(small, large),
+                "Пересечение неверное");
+    }
+
+    private long[] toArray(Set<Long> values) {
+        return values.stream().mapToLong(Long::longValue).toArray();
+    }
+}
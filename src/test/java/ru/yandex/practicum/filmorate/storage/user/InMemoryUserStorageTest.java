@@ -1,10 +1,23 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.journal.JournalFactory;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class InMemoryUserStorageTest extends UserStorageTest<InMemoryUserStorage>{
 
@@ -20,4 +33,126 @@ class InMemoryUserStorageTest extends UserStorageTest<InMemoryUserStorage>{
                 .birthday(LocalDate.of(2000, 2, 20))
                 .build();
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldKeepFriendshipsSymmetricUnderConcurrentLoad() throws Exception {
+        int threads = 8;
+        int usersCount = 60;
+        for (int i = 0; i < usersCount; i++) {
+            userStorage.addUser(user.toBuilder().build());
+        }
+        AtomicInteger added = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean reversed = t % 2 == 1;
+            tasks.add(() -> {
+                // встречные потоки добавляют одни и те же пары в обратном порядке
+                for (long a = 1; a <= usersCount; a++) {
+                    for (long b = a + 1; b <= usersCount; b++) {
+                        try {
+                            if (reversed) {
+                                userStorage.addFriend(b, a);
+                            } else {
+                                userStorage.addFriend(a, b);
+                            }
+                            added.incrementAndGet();
+                        } catch (DataExistException e) {
+                            // пару уже добавил другой поток
+                        }
+                    }
+                    userStorage.getCommonFriends(a, usersCount - a + 1);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(usersCount * (usersCount - 1) / 2, added.get(), "Каждая пара должна добавиться один раз");
+        for (long id = 1; id <= usersCount; id++) {
+            Set<Long> friends = userStorage.getAllFriends(id).stream().map(User::getId).collect(Collectors.toSet());
+            assertEquals(usersCount - 1, friends.size(), "Количество друзей неверное");
+            assertEquals(friends, userStorage.getUserById(id).getFriends(), "Друзья в графе и у пользователя разные");
+        }
+    }
+
+    @Test
+    void shouldRecoverFromSnapshotAndJournal(@TempDir Path dir) throws Exception {
+        JournalFactory journals = new JournalFactory(true, dir.toString(), false);
+        InMemoryUserStorage storage = new InMemoryUserStorage(journals);
+        for (int i = 0; i < 4; i++) {
+            storage.addUser(user.toBuilder().build());
+        }
+        storage.addFriend(1, 2);
+        storage.addFriend(1, 3);
+        storage.snapshot();
+        storage.addFriend(2, 3);
+        storage.removeFriend(1, 2);
+        storage.updateUser(user.toBuilder().id(3).name("Updated").build());
+        storage.removeUserById(4);
+        storage.close();
+
+        InMemoryUserStorage recovered = new InMemoryUserStorage(journals);
+        assertEquals(3, recovered.getAllUsers().size(), "Количество пользователей после восстановления неверное");
+        assertEquals("Updated", recovered.getUserById(3).getName(), "Обновление пользователя потеряно");
+        assertEquals(Set.of(3L), recovered.getUserById(1).getFriends(), "Друзья пользователя 1 неверные");
+        assertEquals(Set.of(1L, 2L), recovered.getUserById(3).getFriends(), "Друзья пользователя 3 неверные");
+        assertEquals(List.of(3L), recovered.getCommonFriends(1, 2).stream().map(User::getId)
+                .collect(Collectors.toList()), "Граф друзей не восстановлен");
+        assertEquals(5, recovered.addUser(user.toBuilder().build()).getId(), "Счетчик id не восстановлен");
+        recovered.close();
+    }
+
+    @Test
+    void shouldRecoverWhenSnapshotsRunDuringChanges(@TempDir Path dir) throws Exception {
+        JournalFactory journals = new JournalFactory(true, dir.toString(), false);
+        InMemoryUserStorage storage = new InMemoryUserStorage(journals);
+        long hub = storage.addUser(user.toBuilder().build()).getId();
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        User added = storage.addUser(user.toBuilder().build());
+                        storage.addFriend(hub, added.getId());
+                        if (i % 2 == 0) {
+                            storage.removeUserById(added.getId());
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            });
+        }
+        tasks.add(() -> {
+            while (done.getCount() > 0) {
+                storage.snapshot();
+            }
+            return null;
+        });
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        executor.shutdown();
+        List<User> expected = storage.getAllUsers();
+        storage.close();
+
+        InMemoryUserStorage recovered = new InMemoryUserStorage(journals);
+        List<User> users = recovered.getAllUsers();
+        assertEquals(threads * 100 + 1, users.size(), "Количество пользователей после восстановления неверное");
+        for (int i = 0; i < users.size(); i++) {
+            assertEquals(expected.get(i).getId(), users.get(i).getId(), "Пользователи после восстановления неверные");
+            assertEquals(expected.get(i).getFriends(), users.get(i).getFriends(),
+                    "Друзья после восстановления неверные");
+        }
+        assertEquals(threads * 100, recovered.getAllFriends(hub).size(), "Граф друзей не восстановлен");
+        recovered.close();
+    }
+}
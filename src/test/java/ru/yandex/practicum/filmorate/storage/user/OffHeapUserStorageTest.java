@@ -0,0 +1,68 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.yandex.practicum.filmorate.exception.DataExistException;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapUserStorageTest extends UserStorageTest<OffHeapUserStorage> {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void beforeEach() {
+        userStorage = new OffHeapUserStorage(dir.toString());
+        userService = new UserService(userStorage);
+        user = User.builder()
+                .id(0)
+                .email("email@mail.ru")
+                .login("Login")
+                .name("Name")
+                .birthday(LocalDate.of(2000, 2, 20))
+                .build();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        userStorage.close();
+    }
+
+    @Test
+    void shouldKeepFriendsOffHeap() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            userStorage.addUser(user.toBuilder().login("Login" + i).build());
+        }
+        userStorage.addFriend(1, 2);
+        userStorage.addFriend(1, 3);
+        userStorage.addFriend(2, 3);
+        assertThrows(DataExistException.class, () -> userStorage.addFriend(2, 1));
+        assertThrows(DataExistException.class, () -> userStorage.addFriend(1, 9));
+
+        User stored = userStorage.getUserById(3);
+        assertEquals("Login2", stored.getLogin(), "Логин пользователя неверный");
+        assertEquals(LocalDate.of(2000, 2, 20), stored.getBirthday(), "Дата рождения неверная");
+        assertEquals(Set.of(1L, 2L), stored.getFriends(), "Друзья пользователя неверные");
+        assertEquals(List.of(3L), ids(userStorage.getCommonFriends(1, 2)), "Общие друзья неверные");
+
+        userStorage.removeUserById(3);
+        assertEquals(List.of(2L), ids(userStorage.getAllFriends(1)), "Удаленный пользователь остался в друзьях");
+        userStorage.removeFriend(1, 2);
+        assertTrue(userStorage.getUserById(2).getFriends().isEmpty(), "Дружба должна быть удалена с обеих сторон");
+        assertEquals(List.of(2L, 4L), ids(userStorage.getUsers(1, 5)), "Страница пользователей неверная");
+    }
+
+    private List<Long> ids(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+}
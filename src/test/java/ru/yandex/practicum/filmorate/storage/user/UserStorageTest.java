@@ -8,6 +8,8 @@ import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -301,4 +303,14 @@ abstract class UserStorageTest<T extends UserStorage> {
                 "День рождения после обновления неверная");
     }
 
-}
\ No newline at end of file
+    @Test
+    void getUsersByIdsInRequestedOrder() throws ValidationException, DataExistException {
+        for (int i = 0; i < 3; i++) {
+            userStorage.addUser(user.toBuilder().id(0).build());
+        }
+        List<Long> ids = userStorage.getUsersByIds(List.of(3L, 99L, 1L)).stream()
+                .map(User::getId)
+                .collect(Collectors.toList());
+        assertEquals(List.of(3L, 1L), ids, "Пользователи по id возвращаются не в порядке запроса");
+    }
+}